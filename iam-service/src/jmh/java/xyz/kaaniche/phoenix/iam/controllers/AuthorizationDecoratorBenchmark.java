@@ -0,0 +1,125 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import xyz.kaaniche.phoenix.core.dao.GenericDAO;
+import xyz.kaaniche.phoenix.core.dao.KeysetPage;
+import xyz.kaaniche.phoenix.iam.entities.Tenant;
+import xyz.kaaniche.phoenix.iam.security.BenchmarkFixtures;
+import xyz.kaaniche.phoenix.iam.security.BenchmarkSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Overhead of the authorization decorator on DAO writes: the same save and saveAll calls go to a stub DAO that
+ * returns its argument, once directly and once through {@link AuthorizationDecorator}, so the difference is the
+ * check. No database is involved: this is not a measure of write throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthorizationDecoratorBenchmark extends BenchmarkSettings {
+    private static final int BATCH_SIZE = 100;
+
+    private GenericDAO<Tenant, Short> undecorated;
+    private GenericDAO<Tenant, Short> decorated;
+    private Tenant tenant;
+    private List<Tenant> tenants;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        undecorated = BenchmarkFixtures.stub(GenericDAO.class, Map.of("save", args -> args[0], "saveAll", args -> args[0]));
+        decorated = new TenantDAODecorator(undecorated);
+        BenchmarkFixtures.inject(decorated, "delegate", undecorated);
+        BenchmarkFixtures.inject(decorated, "permissionMatrix", new PermissionMatrix());
+        BenchmarkFixtures.inject(decorated, "callerRoles", BenchmarkFixtures.callerRoles(RoleSet.ofIds(List.of("Administrator"))));
+        tenant = new Tenant();
+        tenants = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            tenants.add(new Tenant());
+        }
+    }
+
+    @Benchmark
+    public Tenant save() {
+        return undecorated.save(tenant);
+    }
+
+    @Benchmark
+    public Tenant saveDecorated() {
+        return decorated.save(tenant);
+    }
+
+    @Benchmark
+    public List<Tenant> saveAll() {
+        return undecorated.saveAll(tenants);
+    }
+
+    @Benchmark
+    public List<Tenant> saveAllDecorated() {
+        return decorated.saveAll(tenants);
+    }
+
+    /**
+     * The decorator as the container would complete it: methods it does not decorate go to the delegate,
+     * here a stub refusing them.
+     */
+    private static class TenantDAODecorator extends AuthorizationDecorator<Tenant, Short> {
+        private final GenericDAO<Tenant, Short> target;
+
+        TenantDAODecorator(GenericDAO<Tenant, Short> target) {
+            this.target = target;
+        }
+
+        @Override
+        public Optional<Tenant> findById(Short id) {
+            return target.findById(id);
+        }
+
+        @Override
+        public List<Tenant> findAll() {
+            return target.findAll();
+        }
+
+        @Override
+        public Stream<Tenant> streamAll() {
+            return target.streamAll();
+        }
+
+        @Override
+        public KeysetPage<Tenant, Short> findPage(Short after, int size) {
+            return target.findPage(after, size);
+        }
+
+        @Override
+        public void deleteById(Short id) {
+            target.deleteById(id);
+        }
+
+        @Override
+        public boolean existsById(Short id) {
+            return target.existsById(id);
+        }
+
+        @Override
+        public long count() {
+            return target.count();
+        }
+
+        @Override
+        public Class<Tenant> getEntityClass() {
+            return target.getEntityClass();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.SecurityContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation of {@link AuthenticationFilter} for a request with a valid bearer token, the
+ * verification cache being warm. Only the authenticated path is measured: aborting builds a JAX-RS
+ * Response, which needs the runtime the container provides.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthenticationFilterBenchmark extends BenchmarkSettings {
+    private AuthenticationFilter filter;
+    private ContainerRequestContext requestContext;
+
+    @Setup
+    public void setUp(SignedToken signed) {
+        filter = BenchmarkFixtures.authenticationFilter(signed.jwtManager);
+        String authorization = "Bearer " + signed.token;
+        SecurityContext insecure = BenchmarkFixtures.stub(SecurityContext.class, Map.of("isSecure", args -> false));
+        requestContext = BenchmarkFixtures.stub(ContainerRequestContext.class, Map.of(
+                "getHeaderString", args -> HttpHeaders.AUTHORIZATION.equals(args[0]) ? authorization : null,
+                "getSecurityContext", args -> insecure,
+                "setSecurityContext", args -> null));
+    }
+
+    @Benchmark
+    public ContainerRequestContext authenticated() {
+        filter.filter(requestContext);
+        return requestContext;
+    }
+}
@@ -0,0 +1,52 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minting and redeeming authorization codes. Run it with {@code -t 1} and {@code -t 8} to see the contention
+ * on the shared nonce DRBG and the per-thread ciphers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AuthorizationCodeBenchmark extends BenchmarkSettings {
+    private static final String CODE_VERIFIER = "dBjftJeZ4CVP-mB92K27uhbUJU1p1r_wW1gFWFOEjXk";
+
+    private AuthorizationCode authorizationCode;
+    private String codeChallenge;
+    private String code;
+
+    @Setup
+    public void setUp() throws Exception {
+        authorizationCode = new AuthorizationCode("tenant", "subject", "resource.read resource.write",
+                Instant.now().getEpochSecond() + 3600L, "https://client.example/callback", 1L);
+        codeChallenge = Base64.getEncoder().withoutPadding().encodeToString(
+                MessageDigest.getInstance("SHA-256").digest(CODE_VERIFIER.getBytes(StandardCharsets.UTF_8)));
+        code = authorizationCode.getCode(codeChallenge);
+        if (AuthorizationCode.decode(code, CODE_VERIFIER) == null) {
+            throw new IllegalStateException("The code verifier does not match its challenge");
+        }
+    }
+
+    @Benchmark
+    public String mint() throws Exception {
+        return authorizationCode.getCode(codeChallenge);
+    }
+
+    @Benchmark
+    public AuthorizationCode redeem() throws Exception {
+        return AuthorizationCode.decode(code, CODE_VERIFIER);
+    }
+}
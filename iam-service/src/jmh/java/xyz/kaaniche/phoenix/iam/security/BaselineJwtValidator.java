@@ -0,0 +1,46 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.Ed25519Verifier;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTParser;
+import com.nimbusds.jwt.SignedJWT;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The token validation of JwtManager before the key ring, kept as the reference point of the benchmarks:
+ * a linear scan of a HashSet for the kid, a verifier built per call and a second parse of the token.
+ */
+final class BaselineJwtValidator {
+    private final Set<OctetKeyPair> cachedKeyPairs = new HashSet<>();
+
+    BaselineJwtValidator(Iterable<KeyRing.Entry> entries) {
+        for (KeyRing.Entry entry : entries) {
+            cachedKeyPairs.add(entry.keyPair());
+        }
+    }
+
+    Optional<JWT> validateJWT(String token) throws ParseException, JOSEException {
+        SignedJWT parsed = SignedJWT.parse(token);
+        OctetKeyPair publicKey = cachedKeyPairs.stream()
+                .filter(kp -> kp.getKeyID().equals(parsed.getHeader().getKeyID()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Unable to retrieve the key pair associated with the kid"))
+                .toPublicJWK();
+        JWSVerifier verifier = new Ed25519Verifier(publicKey);
+        if (parsed.verify(verifier)) {
+            if (parsed.getJWTClaimsSet().getExpirationTime().toInstant().isBefore(Instant.now())) {
+                return Optional.empty();
+            }
+            return Optional.of(JWTParser.parse(token));
+        }
+        return Optional.empty();
+    }
+}
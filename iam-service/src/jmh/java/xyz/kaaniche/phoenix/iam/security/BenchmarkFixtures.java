@@ -0,0 +1,121 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import jakarta.ejb.TimerService;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
+import xyz.kaaniche.phoenix.iam.controllers.RoleSet;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Builds service objects outside the container: the fields the container would inject are set
+ * reflectively, with inert stand-ins for container services.
+ */
+public final class BenchmarkFixtures {
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @return a started JwtManager whose rotation timer never fires
+     */
+    public static JwtManager startedJwtManager() {
+        JwtManager jwtManager = new JwtManager();
+        inject(jwtManager, "timerService", inert(TimerService.class));
+        inject(jwtManager, "threadFactory", threadFactory());
+        jwtManager.start();
+        return jwtManager;
+    }
+
+    /**
+     * @return a filter validating tokens with the given manager, as the container would inject it
+     */
+    public static AuthenticationFilter authenticationFilter(JwtManager jwtManager) {
+        AuthenticationFilter filter = new AuthenticationFilter();
+        inject(filter, "jwtManager", jwtManager);
+        inject(filter, "callerRoles", new CallerRoles());
+        return filter;
+    }
+
+    public static CallerRoles callerRoles(RoleSet roles) {
+        CallerRoles callerRoles = new CallerRoles();
+        callerRoles.set(roles);
+        return callerRoles;
+    }
+
+    public static void inject(Object target, String fieldName, Object value) {
+        try {
+            field(target, fieldName).set(target, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static <T> T read(Object target, String fieldName, Class<T> type) {
+        try {
+            return type.cast(field(target, fieldName).get(target));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Field field(Object target, String fieldName) {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                //Declared higher up the hierarchy
+            }
+        }
+        throw new IllegalArgumentException("No field " + fieldName + " in " + target.getClass());
+    }
+
+    /**
+     * @return an implementation of an interface whose methods do nothing and return null
+     */
+    public static <T> T inert(Class<T> type) {
+        return proxy(type, (name, args) -> null);
+    }
+
+    /**
+     * @param answers the result of each method, by name, computed from the arguments
+     * @return an implementation of an interface answering the given methods and throwing
+     * UnsupportedOperationException from the others
+     */
+    public static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        return proxy(type, (name, args) -> {
+            Function<Object[], Object> answer = answers.get(name);
+            if (answer == null) {
+                throw new UnsupportedOperationException(name);
+            }
+            return answer.apply(args);
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, BiFunction<String, Object[], Object> answer) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> method.getDeclaringClass() == Object.class
+                        ? objectMethod(proxy, method.getName(), args)
+                        : answer.apply(method.getName(), args)));
+    }
+
+    private static ManagedThreadFactory threadFactory() {
+        return stub(ManagedThreadFactory.class, Map.of("newThread", args -> {
+            Thread thread = new Thread((Runnable) args[0]);
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    private static Object objectMethod(Object proxy, String name, Object[] args) {
+        return switch (name) {
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            default -> proxy.getClass().getName();
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Run settings shared by the benchmarks of the module, which extend this class: JMH inherits the annotations.
+ * The command line still overrides them, e.g. {@code -t 8} for the thread count.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class BenchmarkSettings {
+}
@@ -0,0 +1,37 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jwt.SignedJWT;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token validation throughput: the kid-indexed key ring with its per-kid verifier, the same behind the
+ * verification cache, and the former HashSet scan. Run it with {@code -t 1}, {@code -t 8} and {@code -t 32}
+ * to compare them under contention, and with {@code -prof gc} to compare the bytes allocated per validation by the
+ * single parse of {@link #keyRing} and the double parse of {@link #baseline}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JwtValidationBenchmark extends BenchmarkSettings {
+
+    @Benchmark
+    public Object keyRing(SignedToken signed) throws ParseException {
+        return signed.jwtManager.verify(SignedJWT.parse(signed.token), JwtManager.ACCESS_TOKEN);
+    }
+
+    @Benchmark
+    public Object cached(SignedToken signed) {
+        return signed.jwtManager.validateJWT(signed.token, JwtManager.ACCESS_TOKEN);
+    }
+
+    @Benchmark
+    public Object baseline(SignedToken signed) throws ParseException, JOSEException {
+        return signed.baseline.validateJWT(signed.token);
+    }
+}
@@ -0,0 +1,32 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import xyz.kaaniche.phoenix.iam.controllers.RoleSet;
+
+import java.util.List;
+
+/**
+ * A started JwtManager, an access token it signed and the baseline validator over the same keys,
+ * shared by the threads of a trial.
+ */
+@State(Scope.Benchmark)
+public class SignedToken {
+    JwtManager jwtManager;
+    BaselineJwtValidator baseline;
+    String token;
+
+    @Setup
+    public void setUp() {
+        jwtManager = BenchmarkFixtures.startedJwtManager();
+        baseline = new BaselineJwtValidator(BenchmarkFixtures.read(jwtManager, "keyRing", KeyRing.class).entries());
+        token = jwtManager.generateAccessToken("tenant", "subject", "resource.read", RoleSet.ofIds(List.of("Administrator")));
+    }
+
+    @TearDown
+    public void tearDown() {
+        jwtManager.stop();
+    }
+}
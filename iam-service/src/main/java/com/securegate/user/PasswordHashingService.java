@@ -1,26 +1,18 @@
 package com.securegate.user;
 
-import de.mkammerer.argon2.Argon2;
-import de.mkammerer.argon2.Argon2Factory;
+import xyz.kaaniche.phoenix.iam.security.Argon2Utility;
 
+/**
+ * Delegates to {@link Argon2Utility} so that every hash in the service shares the configured
+ * argon2.* parameters and the bounded hashing executor.
+ */
 public class PasswordHashingService {
 
-    private static final Argon2 argon2 = Argon2Factory.create(Argon2Factory.Argon2Types.ARGON2id);
-
-    // Params: iterations=3, memory=65536, parallelism=4
     public static String hashPassword(String password) {
-        try {
-            return argon2.hash(3, 65536, 4, password.toCharArray());
-        } finally {
-            argon2.wipeArray(password.toCharArray());
-        }
+        return Argon2Utility.hash(password.toCharArray());
     }
 
     public static boolean verifyPassword(String hash, String password) {
-        try {
-            return argon2.verify(hash, password.toCharArray());
-        } finally {
-            argon2.wipeArray(password.toCharArray());
-        }
+        return Argon2Utility.check(hash, password.toCharArray());
     }
 }
@@ -1,8 +1,10 @@
 package xyz.kaaniche.phoenix.core.dao;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Generic DAO interface for basic CRUD operations
@@ -20,6 +22,14 @@ public interface GenericDAO<T, ID extends Serializable> {
      */
     <S extends T> S save(S entity);
 
+    /**
+     * Save or update entities in JDBC batches
+     * 
+     * @param entities the entities to save
+     * @return the saved entities
+     */
+    <S extends T> List<S> saveAll(Iterable<S> entities);
+
     /**
      * Find an entity by ID
      * 
@@ -35,6 +45,25 @@ public interface GenericDAO<T, ID extends Serializable> {
      */
     List<T> findAll();
 
+    /**
+     * Stream all entities without materializing them. Entities are read-only and
+     * periodically detached, so memory stays bounded whatever the table size.
+     * The stream holds an open cursor and must be closed
+     * 
+     * @return a lazily populated stream of all entities
+     */
+    Stream<T> streamAll();
+
+    /**
+     * Find the page of entities following a key, ordered by ID
+     * 
+     * @param after the last ID of the previous page, or null for the first page
+     * @param size  the maximum number of entities in the page
+     * @return the page and the key of the next one
+     * @throws IllegalArgumentException if size is not positive
+     */
+    KeysetPage<T, ID> findPage(ID after, int size);
+
     /**
      * Delete an entity
      * 
@@ -49,6 +78,13 @@ public interface GenericDAO<T, ID extends Serializable> {
      */
     void deleteById(ID id);
 
+    /**
+     * Delete entities by ID in JDBC batches
+     * 
+     * @param ids the entity IDs
+     */
+    void deleteAllById(Collection<ID> ids);
+
     /**
      * Check if an entity exists by ID
      * 
@@ -63,4 +99,11 @@ public interface GenericDAO<T, ID extends Serializable> {
      * @return the count
      */
     long count();
+
+    /**
+     * The managed entity type
+     * 
+     * @return the entity class
+     */
+    Class<T> getEntityClass();
 }
@@ -0,0 +1,215 @@
+package xyz.kaaniche.phoenix.core.dao;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import xyz.kaaniche.phoenix.core.entities.SimplePKEntity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * JPA implementation of {@link GenericDAO} for entities with a simple primary key
+ * 
+ * @param <T>  the entity type
+ * @param <ID> the ID type
+ */
+public abstract class JpaGenericDAO<T extends SimplePKEntity<ID>, ID extends Serializable>
+        implements GenericDAO<T, ID> {
+
+    private static final String HINT_FETCH_SIZE = "org.hibernate.fetchSize";
+    private static final String HINT_READ_ONLY = "org.hibernate.readOnly";
+    private static final String HINT_CACHE_MODE = "org.hibernate.cacheMode";
+    private static final String BATCH_SIZE = "hibernate.jdbc.batch_size";
+
+    private final Class<T> entityClass;
+    private final String entityName;
+
+    protected JpaGenericDAO(Class<T> entityClass) {
+        this.entityClass = entityClass;
+        Entity entity = entityClass.getAnnotation(Entity.class);
+        this.entityName = entity != null && !entity.name().isEmpty() ? entity.name() : entityClass.getSimpleName();
+    }
+
+    protected abstract EntityManager getEntityManager();
+
+    /**
+     * Rows fetched per round trip while streaming, and entities read between two
+     * clears of the persistence context
+     */
+    protected int getFetchSize() {
+        return 500;
+    }
+
+    /**
+     * Entities written between two flushes of the persistence context, the
+     * hibernate.jdbc.batch_size of the persistence unit unless overridden
+     */
+    protected int getBatchSize() {
+        Object batchSize = getEntityManager().getEntityManagerFactory().getProperties().get(BATCH_SIZE);
+        return batchSize == null ? 50 : Integer.parseInt(batchSize.toString());
+    }
+
+    @Override
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    @Override
+    public <S extends T> S save(S entity) {
+        if (entity.getId() == null) {
+            getEntityManager().persist(entity);
+            return entity;
+        }
+        return getEntityManager().merge(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The persistence context is flushed and cleared every {@link #getBatchSize()} entities:
+     * the returned entities are detached
+     */
+    @Override
+    public <S extends T> List<S> saveAll(Iterable<S> entities) {
+        EntityManager entityManager = getEntityManager();
+        int batchSize = getBatchSize();
+        List<S> saved = new ArrayList<>();
+        for (S entity : entities) {
+            saved.add(save(entity));
+            if (saved.size() % batchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return saved;
+    }
+
+    @Override
+    public Optional<T> findById(ID id) {
+        return Optional.ofNullable(getEntityManager().find(entityClass, id));
+    }
+
+    @Override
+    public List<T> findAll() {
+        return getEntityManager().createQuery("select e from " + entityName + " e", entityClass).getResultList();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The persistence context is cleared every {@link #getFetchSize()} entities: do not
+     * call it from a unit of work holding pending changes
+     */
+    @Override
+    public Stream<T> streamAll() {
+        EntityManager entityManager = getEntityManager();
+        int fetchSize = getFetchSize();
+        Stream<T> rows = entityManager.createQuery("select e from " + entityName + " e", entityClass)
+                .setHint(HINT_FETCH_SIZE, fetchSize)
+                .setHint(HINT_READ_ONLY, true)
+                .setHint(HINT_CACHE_MODE, "IGNORE")
+                .getResultStream();
+        Spliterator<T> source = rows.spliterator();
+        //The context is cleared before the next row is read, never between reading an entity and handing it out
+        Spliterator<T> clearing = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private long read;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if (read > 0L && read % fetchSize == 0L) {
+                    entityManager.clear();
+                }
+                boolean advanced = source.tryAdvance(action);
+                if (advanced) {
+                    read++;
+                }
+                return advanced;
+            }
+        };
+        return StreamSupport.stream(clearing, false).onClose(rows::close);
+    }
+
+    @Override
+    public KeysetPage<T, ID> findPage(ID after, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + size);
+        }
+        TypedQuery<T> query = after == null
+                ? getEntityManager().createQuery("select e from " + entityName + " e order by e.id", entityClass)
+                : getEntityManager().createQuery("select e from " + entityName + " e where e.id > :after order by e.id", entityClass)
+                        .setParameter("after", after);
+        //One extra row tells whether a next page exists without a count query
+        List<T> content = query.setMaxResults(size + 1).getResultList();
+        if (content.size() <= size) {
+            return new KeysetPage<>(content, null);
+        }
+        content = content.subList(0, size);
+        return new KeysetPage<>(content, content.get(size - 1).getId());
+    }
+
+    @Override
+    public void delete(T entity) {
+        EntityManager entityManager = getEntityManager();
+        entityManager.remove(entityManager.contains(entity) ? entity : entityManager.merge(entity));
+    }
+
+    @Override
+    public void deleteById(ID id) {
+        findById(id).ifPresent(getEntityManager()::remove);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each batch is loaded with one query then removed, so that entity callbacks still run
+     */
+    @Override
+    public void deleteAllById(Collection<ID> ids) {
+        EntityManager entityManager = getEntityManager();
+        int batchSize = getBatchSize();
+        List<ID> batch = new ArrayList<>(batchSize);
+        for (ID id : ids) {
+            batch.add(id);
+            if (batch.size() == batchSize) {
+                deleteBatch(entityManager, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            deleteBatch(entityManager, batch);
+        }
+    }
+
+    private void deleteBatch(EntityManager entityManager, List<ID> ids) {
+        entityManager.createQuery("select e from " + entityName + " e where e.id in :ids", entityClass)
+                .setParameter("ids", ids)
+                .getResultList()
+                .forEach(entityManager::remove);
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Override
+    public boolean existsById(ID id) {
+        return getEntityManager().createQuery("select count(e) from " + entityName + " e where e.id = :id", Long.class)
+                .setParameter("id", id)
+                .getSingleResult() > 0;
+    }
+
+    @Override
+    public long count() {
+        return getEntityManager().createQuery("select count(e) from " + entityName + " e", Long.class)
+                .getSingleResult();
+    }
+}
@@ -0,0 +1,18 @@
+package xyz.kaaniche.phoenix.core.dao;
+
+import java.util.List;
+
+/**
+ * A page of a keyset (seek) pagination
+ * 
+ * @param content the entities of the page, ordered by ID
+ * @param nextKey the key to pass to fetch the next page, or null on the last page
+ * @param <T>     the entity type
+ * @param <ID>    the ID type
+ */
+public record KeysetPage<T, ID>(List<T> content, ID nextKey) {
+
+    public boolean hasNext() {
+        return nextKey != null;
+    }
+}
@@ -0,0 +1,114 @@
+package xyz.kaaniche.phoenix.core.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel: deadlines are hashed by tick into a fixed ring of buckets and expired by a single
+ * driver calling {@link #advance(long, Consumer)}, instead of one scheduled task per item.
+ * <p>
+ * Scheduling is constant time and lock-free. An item due more than one revolution ahead stays in its
+ * bucket until its own tick is reached. Cancelling scans the bucket of the item only.
+ * 
+ * @param <T> the type of the scheduled items
+ */
+public final class HashedTimingWheel<T> {
+    /**
+     * A scheduled item, to be passed to {@link #cancel(Timeout)}. Timeouts are compared by identity.
+     */
+    public static final class Timeout<T> {
+        private final T item;
+        private final long deadlineTick;
+
+        private Timeout(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T item() {
+            return item;
+        }
+    }
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<Queue<Timeout<T>>> buckets;
+    private volatile long currentTick;
+
+    /**
+     * @param tickMillis  the resolution of the wheel
+     * @param wheelSize   the number of buckets, rounded up to a power of two
+     * @param startMillis the current time
+     */
+    public HashedTimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis <= 0L || wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Illegal timing wheel dimensions");
+        }
+        int size = wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ConcurrentLinkedQueue<>());
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Schedules an item to be handed to the expiry callback once its deadline has passed
+     * 
+     * @param item           the item
+     * @param deadlineMillis the deadline, in epoch milliseconds
+     * @return the timeout, to cancel it
+     */
+    public Timeout<T> schedule(T item, long deadlineMillis) {
+        //A deadline already behind the wheel goes to the next tick rather than a full revolution later
+        long tick = Math.max((deadlineMillis + tickMillis - 1L) / tickMillis, currentTick + 1L);
+        Timeout<T> timeout = new Timeout<>(item, tick);
+        buckets.get((int) (tick & mask)).add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Removes a timeout so that its item is never handed to the expiry callback
+     * 
+     * @param timeout the timeout returned by {@link #schedule(Object, long)}
+     * @return false if the item has already expired or been cancelled
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        return buckets.get((int) (timeout.deadlineTick & mask)).remove(timeout);
+    }
+
+    /**
+     * Expires every item whose deadline is not after {@code nowMillis}
+     * 
+     * @param nowMillis the current time, in epoch milliseconds
+     * @param expired   the callback receiving expired items
+     */
+    public synchronized void advance(long nowMillis, Consumer<? super T> expired) {
+        long target = nowMillis / tickMillis;
+        //A late driver has to visit every bucket once at most
+        long from = Math.max(currentTick + 1L, target - mask);
+        for (long tick = from; tick <= target; tick++) {
+            Iterator<Timeout<T>> timeouts = buckets.get((int) (tick & mask)).iterator();
+            while (timeouts.hasNext()) {
+                Timeout<T> timeout = timeouts.next();
+                if (timeout.deadlineTick <= target) {
+                    timeouts.remove();
+                    expired.accept(timeout.item);
+                }
+            }
+        }
+        if (target > currentTick) {
+            currentTick = target;
+        }
+    }
+}
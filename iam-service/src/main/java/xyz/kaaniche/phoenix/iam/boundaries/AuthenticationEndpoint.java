@@ -1,7 +1,11 @@
 package xyz.kaaniche.phoenix.iam.boundaries;
 
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
 import jakarta.enterprise.context.RequestScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
+import jakarta.json.Json;
 
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.CookieParam;
@@ -11,35 +15,38 @@ import jakarta.ws.rs.PATCH;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.ServiceUnavailableException;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.NewCookie;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
-import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.core.UriBuilder;
 import jakarta.ws.rs.core.UriInfo;
+import org.eclipse.microprofile.config.ConfigProvider;
+import xyz.kaaniche.phoenix.iam.controllers.AuthorizationRequest;
+import xyz.kaaniche.phoenix.iam.controllers.AuthorizationRequestStore;
+import xyz.kaaniche.phoenix.iam.controllers.PasswordRehashRequest;
 import xyz.kaaniche.phoenix.iam.controllers.PhoenixIAMRepository;
+import xyz.kaaniche.phoenix.iam.controllers.ScopeRegistry;
 import xyz.kaaniche.phoenix.iam.entities.Grant;
-import xyz.kaaniche.phoenix.iam.entities.Identity;
+import xyz.kaaniche.phoenix.iam.entities.IdentityCredentials;
 import xyz.kaaniche.phoenix.iam.entities.Tenant;
 import xyz.kaaniche.phoenix.iam.security.Argon2Utility;
 import xyz.kaaniche.phoenix.iam.security.AuthorizationCode;
 
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.logging.Logger;
 
 
@@ -53,104 +60,166 @@ public class AuthenticationEndpoint {
     @Inject
     PhoenixIAMRepository phoenixIAMRepository;
 
+    @Inject
+    Event<PasswordRehashRequest> passwordRehash;
+
+    @Inject
+    PageCache pageCache;
+
+    @Inject
+    AuthorizationRequestStore authorizationRequestStore;
+
+    @Resource
+    ManagedExecutorService managedExecutor;
+
+    private final Long codeLifetime = ConfigProvider.getConfig().getValue("code.lifetime.duration", Long.class);
+
     @GET
     @Produces(MediaType.TEXT_HTML)
     @Path("/authorize")
-    public Response authorize(@Context UriInfo uriInfo) {
+    public Response authorize(@Context UriInfo uriInfo, @Context Request request, @Context HttpHeaders headers) {
         MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
-        //1. Check tenant
-        String clientId = params.getFirst("client_id");
-        if (clientId == null || clientId.isEmpty()) {
-            return informUserAboutError("Invalid client_id :" + clientId);
-        }
-        Tenant tenant = phoenixIAMRepository.findTenantByName(clientId);
-        if (tenant == null) {
-            return informUserAboutError("Invalid client_id :" + clientId);
-        }
-        //2. Client Authorized Grant Type
-        if (tenant.getSupportedGrantTypes() != null && !tenant.getSupportedGrantTypes().contains("authorization_code")) {
-            return informUserAboutError("Authorization Grant type, authorization_code, is not allowed for this tenant :" + clientId);
-        }
-        //3. redirectUri
-        String redirectUri = params.getFirst("redirect_uri");
-        if (tenant.getRedirectUri() != null && !tenant.getRedirectUri().isEmpty()) {
-            if (redirectUri != null && !redirectUri.isEmpty() && !tenant.getRedirectUri().equals(redirectUri)) {
-                //sould be in the client.redirectUri
-                return informUserAboutError("redirect_uri is pre-registred and should match");
-            }
-            redirectUri = tenant.getRedirectUri();
-        } else {
-            if (redirectUri == null || redirectUri.isEmpty()) {
-                return informUserAboutError("redirect_uri is not pre-registred and should be provided");
+        String handle;
+        String requestUri = params.getFirst("request_uri");
+        try {
+            if (requestUri != null) {
+                //Pushed request: everything but client_id was validated by /par
+                String pushedHandle = requestUri.startsWith(AuthorizationRequestStore.REQUEST_URI_PREFIX)
+                        ? requestUri.substring(AuthorizationRequestStore.REQUEST_URI_PREFIX.length()) : null;
+                //request_uri is single use, and the client that pushed it must not know the browser's handle
+                Optional<AuthorizationRequest> pushed = authorizationRequestStore.take(pushedHandle);
+                if (pushed.isEmpty() || !pushed.get().tenantName().equals(params.getFirst("client_id"))) {
+                    return informUserAboutError("Invalid or expired request_uri :" + requestUri);
+                }
+                handle = authorizationRequestStore.save(pushed.get());
+            } else {
+                handle = authorizationRequestStore.save(parseAuthorizationRequest(params));
             }
+        } catch (IllegalArgumentException e) {
+            return informUserAboutError(e.getMessage());
+        } catch (ServiceUnavailableException e) {
+            return Response.fromResponse(informUserAboutError("The service is busy, please try again later."))
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, e.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER))
+                    .build();
         }
+        return pageCache.respond(PageCache.LOGIN, request, headers).location(uriInfo.getBaseUri().resolve("/login/authorization"))
+                .cookie(new NewCookie.Builder(CHALLENGE_RESPONSE_COOKIE_ID)
+                .httpOnly(true).secure(true).sameSite(NewCookie.SameSite.STRICT).value(handle).build()).build();
+    }
 
-        //4. response_type
-        String responseType = params.getFirst("response_type");
-        if (!"code".equals(responseType) && !"token".equals(responseType)) {
-            String error = "invalid_grant :" + responseType + ", response_type params should be code or token:";
-            return informUserAboutError(error);
-        }
-
-        //5. check scope
-        String requestedScope = params.getFirst("scope");
-        if (requestedScope == null || requestedScope.isEmpty()) {
-            requestedScope = tenant.getRequiredScopes();
+    @POST
+    @Path("/par")
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response pushAuthorizationRequest(MultivaluedMap<String, String> params) {
+        //request_uri must not be pushed itself (RFC 9126, section 2.1)
+        if (params.containsKey("request_uri")) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(Json.createObjectBuilder()
+                    .add("error", "invalid_request")
+                    .add("error_description", "request_uri is not allowed in a pushed authorization request")
+                    .build()).build();
         }
-        //6. code_challenge_method must be S256
-        String codeChallengeMethod = params.getFirst("code_challenge_method");
-        if(codeChallengeMethod==null || !codeChallengeMethod.equals("S256")){
-            String error = "invalid_grant :" + codeChallengeMethod + ", code_challenge_method must be 'S256'";
-            return informUserAboutError(error);
+        try {
+            String handle = authorizationRequestStore.save(parseAuthorizationRequest(params));
+            return Response.status(Response.Status.CREATED).entity(Json.createObjectBuilder()
+                            .add("request_uri", AuthorizationRequestStore.REQUEST_URI_PREFIX + handle)
+                            .add("expires_in", authorizationRequestStore.getLifetime())
+                            .build())
+                    .header("Cache-Control", "no-store")
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(Json.createObjectBuilder()
+                    .add("error", "invalid_request")
+                    .add("error_description", e.getMessage())
+                    .build()).build();
+        } catch (ServiceUnavailableException e) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(Json.createObjectBuilder()
+                            .add("error", "temporarily_unavailable")
+                            .add("error_description", "Too many pending authorization requests")
+                            .build())
+                    .header(HttpHeaders.RETRY_AFTER, e.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER))
+                    .build();
         }
-        StreamingOutput stream = output -> {
-            try (InputStream is = Objects.requireNonNull(getClass().getResource("/login.html")).openStream()){
-                output.write(is.readAllBytes());
-            }
-        };
-        return Response.ok(stream).location(uriInfo.getBaseUri().resolve("/login/authorization"))
-                .cookie(new NewCookie.Builder(CHALLENGE_RESPONSE_COOKIE_ID)
-                .httpOnly(true).secure(true).sameSite(NewCookie.SameSite.STRICT).value(tenant.getName()+"#"+requestedScope+"$"+redirectUri).build()).build();
     }
 
     @POST
     @Path("/login/authorization")
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     @Produces(MediaType.TEXT_HTML)
-    public Response login(@CookieParam(CHALLENGE_RESPONSE_COOKIE_ID) Cookie cookie,
+    public CompletionStage<Response> login(@CookieParam(CHALLENGE_RESPONSE_COOKIE_ID) Cookie cookie,
                           @FormParam("username")String username,
                           @FormParam("password")String password,
-                          @Context UriInfo uriInfo) throws Exception {
-        Identity identity = phoenixIAMRepository.findIdentityByUsername(username);
-        if(Argon2Utility.check(identity.getPassword(),password.toCharArray())){
-            logger.info("Authenticated identity:"+username);
-            MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
-            Optional<Grant> grant = phoenixIAMRepository.findGrant(cookie.getValue().split("#")[0],identity.getId());
-            if(grant.isPresent()){
-                String redirectURI = buildActualRedirectURI(
-                        cookie.getValue().split("\\$")[1],params.getFirst("response_type"),
-                        cookie.getValue().split("#")[0],
-                        username,
-                        checkUserScopes(grant.get().getApprovedScopes(),cookie.getValue().split("#")[1].split("\\$")[0])
-                        ,params.getFirst("code_challenge"),params.getFirst("state")
-                );
-                return Response.seeOther(UriBuilder.fromUri(redirectURI).build()).build();
+                          @Context Request request,
+                          @Context HttpHeaders headers) {
+        String handle = cookie == null ? null : cookie.getValue();
+        Optional<AuthorizationRequest> pending = authorizationRequestStore.find(handle);
+        if (pending.isEmpty()) {
+            return CompletableFuture.completedFuture(informUserAboutError("The authorization request has expired, please sign in again."));
+        }
+        AuthorizationRequest authorizationRequest = pending.get();
+        //Cheap lookups stay on the request thread; only the Argon2 verification is offloaded
+        Optional<IdentityCredentials> credentials = phoenixIAMRepository.findCredentialsByUsername(username);
+        Optional<Grant> grant = credentials.flatMap(c -> phoenixIAMRepository.findGrant(authorizationRequest.tenantName(),c.id()));
+        long grantedScopes = grant.map(g -> authorizationRequest.scopeRegistry().parse(g.getApprovedScopes())).orElse(0L);
+        //The verified array is wiped by Argon2Utility: keep a copy only if the hash has to be upgraded
+        char[] rehashCopy = credentials.isPresent() && Argon2Utility.needsRehash(credentials.get().password())
+                ? password.toCharArray() : null;
+        //An unknown username is verified against a dummy hash of the same cost, so it answers no faster
+        CompletionStage<Boolean> verification;
+        try {
+            verification = Argon2Utility.checkAsync(
+                    credentials.map(IdentityCredentials::password).orElseGet(Argon2Utility::dummyHash),password.toCharArray())
+                    .thenApply(verified -> verified && credentials.isPresent());
+        } catch (RuntimeException e) {
+            //Refused, with 503 when saturated: the request is kept so that the form can be sent again until it expires
+            if(rehashCopy != null){
+                Arrays.fill(rehashCopy,'\0');
+            }
+            throw e;
+        }
+        //The copy is handed over or wiped on every outcome, before the continuation that may never run
+        verification = verification.whenComplete((authenticated, failure) -> {
+            if(rehashCopy == null){
+                return;
+            }
+            if(Boolean.TRUE.equals(authenticated)){
+                passwordRehash.fireAsync(new PasswordRehashRequest(credentials.get().id(),credentials.get().password(),rehashCopy));
             }else{
-                StreamingOutput stream = output -> {
-                    try (InputStream is = Objects.requireNonNull(getClass().getResource("/consent.html")).openStream()){
-                        output.write(is.readAllBytes());
+                Arrays.fill(rehashCopy,'\0');
+            }
+        });
+        //Continue on a container thread: the Argon2 slots are reserved for hashing
+        return verification.thenApplyAsync(authenticated -> {
+            if(authenticated){
+                logger.info("Authenticated identity:"+username);
+                //Consent is asked again only when some requested scope was never granted
+                if(grant.isPresent() && ScopeRegistry.covers(grantedScopes,authorizationRequest.scopes())){
+                    authorizationRequestStore.remove(handle);
+                    try {
+                        String redirectURI = buildActualRedirectURI(authorizationRequest, username,
+                                authorizationRequest.scopes(), credentials.get().roles());
+                        return Response.seeOther(UriBuilder.fromUri(redirectURI).build()).build();
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
                     }
-                };
-                return Response.ok(stream).build();
+                }else{
+                    //Consent is bound to the identity authenticated here, not to anything the consent form sends
+                    authorizationRequestStore.update(handle, authorizationRequest.authenticatedAs(
+                            credentials.get().id(),username,credentials.get().roles()));
+                    return pageCache.respond(PageCache.CONSENT, request, headers).build();
+                }
+            } else {
+                logger.info("Failure when authenticating identity:"+username);
+                //The client is told the request failed, so its handle cannot be used again
+                authorizationRequestStore.remove(handle);
+                URI location = UriBuilder.fromUri(authorizationRequest.redirectUri())
+                        .queryParam("error", "User doesn't approved the request.")
+                        .queryParam("error_description", "User doesn't approved the request.")
+                        .build();
+                return Response.seeOther(location).build();
             }
-        } else {
-            logger.info("Failure when authenticating identity:"+username);
-            URI location = UriBuilder.fromUri(cookie.getValue().split("\\$")[1])
-                    .queryParam("error", "User doesn't approved the request.")
-                    .queryParam("error_description", "User doesn't approved the request.")
-                    .build();
-            return Response.seeOther(location).build();
-        }
+        }, managedExecutor);
     }
 
     @PATCH
@@ -158,58 +227,121 @@ public class AuthenticationEndpoint {
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     public Response grantConsent(@CookieParam(CHALLENGE_RESPONSE_COOKIE_ID) Cookie cookie,
                                  @FormParam("approved_scope") String scope,
-                                 @FormParam("approval_status") String approvalStatus,
-                                 @FormParam("username") String username){
+                                 @FormParam("approval_status") String approvalStatus){
+        String handle = cookie == null ? null : cookie.getValue();
+        Optional<AuthorizationRequest> pending = authorizationRequestStore.find(handle)
+                .filter(AuthorizationRequest::isAuthenticated);
+        if (pending.isEmpty()) {
+            return informUserAboutError("The authorization request has expired, please sign in again.");
+        }
+        AuthorizationRequest authorizationRequest = pending.get();
+        authorizationRequestStore.remove(handle);
         if ("NO".equals(approvalStatus)) {
-            URI location = UriBuilder.fromUri(cookie.getValue().split("\\$")[1])
+            URI location = UriBuilder.fromUri(authorizationRequest.redirectUri())
                     .queryParam("error", "User doesn't approved the request.")
                     .queryParam("error_description", "User doesn't approved the request.")
                     .build();
             return Response.seeOther(location).build();
         }
         //==> YES
-        List<String> approvedScopes = Arrays.stream(scope.split(" ")).toList();
-        if (approvedScopes.isEmpty()) {
-            URI location = UriBuilder.fromUri(cookie.getValue().split("\\$")[1])
+        ScopeRegistry scopeRegistry = authorizationRequest.scopeRegistry();
+        long approvedScopes = scopeRegistry.parse(scope) & authorizationRequest.scopes();
+        if (approvedScopes == 0L) {
+            URI location = UriBuilder.fromUri(authorizationRequest.redirectUri())
                     .queryParam("error", "User doesn't approved the request.")
                     .queryParam("error_description", "User doesn't approved the request.")
                     .build();
             return Response.seeOther(location).build();
         }
+        //Earlier consents are kept: the grant holds the union of everything approved so far
+        long grantedScopes = phoenixIAMRepository.findGrant(authorizationRequest.tenantName(),authorizationRequest.identityId())
+                .map(g -> scopeRegistry.parse(g.getApprovedScopes())).orElse(0L);
+        //Persisted behind the redirect: the grant is served from the cache until the queue is flushed
+        phoenixIAMRepository.saveGrant(authorizationRequest.tenantName(),authorizationRequest.identityId(),
+                scopeRegistry.render(grantedScopes | approvedScopes));
         try {
-            return Response.seeOther(UriBuilder.fromUri(buildActualRedirectURI(
-                    cookie.getValue().split("\\$")[1],null,
-                    cookie.getValue().split("#")[0],username, String.join(" ", approvedScopes), null,null
-            )).build()).build();
+            return Response.seeOther(UriBuilder.fromUri(buildActualRedirectURI(authorizationRequest,
+                    authorizationRequest.username(), approvedScopes | (grantedScopes & authorizationRequest.scopes()),
+                    authorizationRequest.roles())).build()).build();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    private String buildActualRedirectURI(String redirectUri,String responseType,String clientId,String userId,String approvedScopes,String codeChallenge,String state) throws Exception {
-        StringBuilder sb = new StringBuilder(redirectUri);
-        if ("code".equals(responseType)) {
-            AuthorizationCode authorizationCode = new AuthorizationCode(clientId,userId,
-                    approvedScopes, Instant.now().plus(2, ChronoUnit.MINUTES).getEpochSecond(),redirectUri);
-            sb.append("?code=").append(URLEncoder.encode(authorizationCode.getCode(codeChallenge), StandardCharsets.UTF_8));
+    /**
+     * Validates the parameters of an authorization request, whether pushed or sent to /authorize.
+     *
+     * @throws IllegalArgumentException describing the first invalid parameter
+     */
+    private AuthorizationRequest parseAuthorizationRequest(MultivaluedMap<String, String> params) {
+        //1. Check tenant
+        String clientId = params.getFirst("client_id");
+        if (clientId == null || clientId.isEmpty()) {
+            throw new IllegalArgumentException("Invalid client_id :" + clientId);
+        }
+        Tenant tenant = phoenixIAMRepository.findTenantByName(clientId);
+        if (tenant == null) {
+            throw new IllegalArgumentException("Invalid client_id :" + clientId);
+        }
+        //2. Client Authorized Grant Type
+        if (tenant.getSupportedGrantTypes() != null && !tenant.getSupportedGrantTypes().contains("authorization_code")) {
+            throw new IllegalArgumentException("Authorization Grant type, authorization_code, is not allowed for this tenant :" + clientId);
+        }
+        //3. redirectUri
+        String redirectUri = params.getFirst("redirect_uri");
+        if (tenant.getRedirectUri() != null && !tenant.getRedirectUri().isEmpty()) {
+            if (redirectUri != null && !redirectUri.isEmpty() && !tenant.getRedirectUri().equals(redirectUri)) {
+                //sould be in the client.redirectUri
+                throw new IllegalArgumentException("redirect_uri is pre-registred and should match");
+            }
+            redirectUri = tenant.getRedirectUri();
         } else {
-            //Implicit: responseType=token : Not Supported
-            return null;
+            if (redirectUri == null || redirectUri.isEmpty()) {
+                throw new IllegalArgumentException("redirect_uri is not pre-registred and should be provided");
+            }
         }
-        if (state != null) {
-            sb.append("&state=").append(state);
+
+        //4. response_type
+        String responseType = params.getFirst("response_type");
+        if (!"code".equals(responseType) && !"token".equals(responseType)) {
+            throw new IllegalArgumentException("invalid_grant :" + responseType + ", response_type params should be code or token:");
         }
-        return sb.toString();
+
+        //5. check scope, interned against the scopes declared by the tenant
+        ScopeRegistry scopeRegistry = phoenixIAMRepository.findScopeRegistry(tenant.getName());
+        String requestedScope = params.getFirst("scope");
+        long scopes = requestedScope == null || requestedScope.isEmpty()
+                ? scopeRegistry.all() : scopeRegistry.parse(requestedScope);
+        if (scopes == 0L) {
+            throw new IllegalArgumentException("invalid_scope :" + requestedScope + ", no scope of this tenant was requested");
+        }
+        //6. code_challenge_method must be S256
+        String codeChallengeMethod = params.getFirst("code_challenge_method");
+        if(codeChallengeMethod==null || !codeChallengeMethod.equals("S256")){
+            throw new IllegalArgumentException("invalid_grant :" + codeChallengeMethod + ", code_challenge_method must be 'S256'");
+        }
+        String codeChallenge = params.getFirst("code_challenge");
+        if (codeChallenge == null || codeChallenge.isEmpty()) {
+            throw new IllegalArgumentException("code_challenge is required");
+        }
+        return new AuthorizationRequest(tenant.getName(), redirectUri, responseType, scopeRegistry, scopes,
+                codeChallenge, params.getFirst("state"), authorizationRequestStore.nextExpiry());
     }
 
-    private String checkUserScopes(String userScopes, String requestedScope) {
-        Set<String> allowedScopes = new LinkedHashSet<>();
-        Set<String> rScopes = new HashSet<>(Arrays.asList(requestedScope.split(" ")));
-        Set<String> uScopes = new HashSet<>(Arrays.asList(userScopes.split(" ")));
-        for (String scope : uScopes) {
-            if (rScopes.contains(scope)) allowedScopes.add(scope);
+    private String buildActualRedirectURI(AuthorizationRequest authorizationRequest,String userId,long approvedScopes,Long roles) throws Exception {
+        StringBuilder sb = new StringBuilder(authorizationRequest.redirectUri());
+        if ("code".equals(authorizationRequest.responseType())) {
+            AuthorizationCode authorizationCode = new AuthorizationCode(authorizationRequest.tenantName(),userId,
+                    authorizationRequest.scopeRegistry().render(approvedScopes), Instant.now().getEpochSecond() + codeLifetime,authorizationRequest.redirectUri(),roles);
+            sb.append("?code=").append(URLEncoder.encode(authorizationCode.getCode(authorizationRequest.codeChallenge()), StandardCharsets.UTF_8));
+        } else {
+            //Implicit: responseType=token : Not Supported
+            return null;
+        }
+        if (authorizationRequest.state() != null) {
+            sb.append("&state=").append(authorizationRequest.state());
         }
-        return String.join( " ", allowedScopes);
+        return sb.toString();
     }
 
     private Response informUserAboutError(String error) {
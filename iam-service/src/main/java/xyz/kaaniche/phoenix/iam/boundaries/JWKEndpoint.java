@@ -5,8 +5,12 @@ import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import xyz.kaaniche.phoenix.iam.security.JwkSetDocument;
 import xyz.kaaniche.phoenix.iam.security.JwtManager;
 
 @Path("jwk")
@@ -16,11 +20,25 @@ public class JWKEndpoint {
     private JwtManager jwtManager;
 
     @GET
-    public Response getPublicVerificationKey(@QueryParam ("kid") String kid) throws Exception {
+    public Response getPublicVerificationKey(@QueryParam ("kid") String kid, @Context Request request) throws Exception {
+        if (kid == null) {
+            return getPublicVerificationKeys(request);
+        }
         try {
             return Response.ok(jwtManager.getPublicValidationKey(kid).toJSONString()).type(MediaType.APPLICATION_JSON).build();
         }catch (Throwable t){
             return Response.status(Response.Status.BAD_REQUEST).entity(t.getMessage()).build();
         }
     }
+
+    private Response getPublicVerificationKeys(Request request) {
+        JwkSetDocument jwkSet = jwtManager.getJwkSet();
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(jwkSet.maxAge());
+        Response.ResponseBuilder builder = request.evaluatePreconditions(jwkSet.entityTag());
+        if (builder == null) {
+            builder = Response.ok(jwkSet.json()).type(MediaType.APPLICATION_JSON);
+        }
+        return builder.tag(jwkSet.entityTag()).cacheControl(cacheControl).build();
+    }
 }
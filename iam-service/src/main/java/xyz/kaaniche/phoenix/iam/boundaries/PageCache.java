@@ -0,0 +1,135 @@
+package xyz.kaaniche.phoenix.iam.boundaries;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ws.rs.HttpMethod;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTML pages of the sign-in flow, read from the classpath and gzip-compressed once at startup.
+ * <p>
+ * A brotli variant is served when a precompressed {@code .br} sidecar ships next to the page,
+ * since the JDK has no brotli encoder. Each variant carries its own strong ETag.
+ */
+@Startup
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PageCache {
+    public static final String LOGIN = "/login.html";
+    public static final String CONSENT = "/consent.html";
+
+    private static final MediaType TEXT_HTML_UTF8 = MediaType.TEXT_HTML_TYPE.withCharset("UTF-8");
+
+    private record Variant(byte[] content, String encoding, EntityTag entityTag) {
+    }
+
+    private record Page(Variant identity, Variant gzip, Variant brotli) {
+    }
+
+    private Map<String, Page> pages;
+
+    @PostConstruct
+    public void load() {
+        pages = Map.of(LOGIN, loadPage(LOGIN), CONSENT, loadPage(CONSENT));
+    }
+
+    /**
+     * Builds the response for a page in the best encoding accepted by the client, or a 304 when
+     * a GET comes with the ETag of that variant.
+     */
+    public Response.ResponseBuilder respond(String name, Request request, HttpHeaders headers) {
+        Page page = pages.get(name);
+        String acceptEncoding = headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING);
+        Variant variant = page.brotli() != null && accepts(acceptEncoding, "br") ? page.brotli()
+                : accepts(acceptEncoding, "gzip") ? page.gzip() : page.identity();
+        //Conditional POSTs would otherwise be answered with 412
+        Response.ResponseBuilder builder = HttpMethod.GET.equals(request.getMethod())
+                ? request.evaluatePreconditions(variant.entityTag()) : null;
+        if (builder == null) {
+            builder = Response.ok(variant.content(), TEXT_HTML_UTF8);
+            if (variant.encoding() != null) {
+                builder.header(HttpHeaders.CONTENT_ENCODING, variant.encoding());
+            }
+        }
+        return builder.tag(variant.entityTag()).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+
+    private static Page loadPage(String name) {
+        byte[] content = read(name);
+        if (content == null) {
+            throw new IllegalStateException("Missing page " + name);
+        }
+        String tag = digest(content);
+        byte[] brotli = read(name + ".br");
+        return new Page(new Variant(content, null, new EntityTag(tag)),
+                new Variant(gzip(content), "gzip", new EntityTag(tag + "-gzip")),
+                brotli == null ? null : new Variant(brotli, "br", new EntityTag(tag + "-br")));
+    }
+
+    //An encoding is accepted when listed, or else matched by '*', without a zero quality
+    private static boolean accepts(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String element : acceptEncoding.split(",")) {
+            int semicolon = element.indexOf(';');
+            String coding = (semicolon < 0 ? element : element.substring(0, semicolon)).trim();
+            boolean acceptable = semicolon < 0
+                    || !element.substring(semicolon + 1).trim().matches("[qQ]\\s*=\\s*0(\\.0{0,3})?");
+            if (coding.equalsIgnoreCase(encoding)) {
+                return acceptable;
+            }
+            if (coding.equals("*")) {
+                wildcard = acceptable;
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
+    private static byte[] read(String name) {
+        try (InputStream is = PageCache.class.getResourceAsStream(name)) {
+            return is == null ? null : is.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package xyz.kaaniche.phoenix.iam.boundaries;
+
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.ejb.EJB;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import xyz.kaaniche.phoenix.iam.controllers.AuthorizationRequestStore;
+import xyz.kaaniche.phoenix.iam.controllers.GrantWriteQueue;
+import xyz.kaaniche.phoenix.iam.controllers.GrantWriteStatistics;
+import xyz.kaaniche.phoenix.iam.security.Argon2Utility;
+import xyz.kaaniche.phoenix.iam.security.CacheStatistics;
+import xyz.kaaniche.phoenix.iam.security.HashingStatistics;
+import xyz.kaaniche.phoenix.iam.security.JwtManager;
+import xyz.kaaniche.phoenix.iam.security.Secured;
+
+@Path("statistics")
+@ApplicationScoped
+@Secured
+@RolesAllowed("root")
+public class StatisticsEndpoint {
+    @EJB
+    private JwtManager jwtManager;
+
+    @EJB
+    private GrantWriteQueue grantWriteQueue;
+
+    @EJB
+    private AuthorizationRequestStore authorizationRequestStore;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public JsonObject getStatistics() {
+        return Json.createObjectBuilder()
+                .add("jwt_verification_cache", toJson(jwtManager.getVerificationCacheStatistics()))
+                .add("argon2", toJson(Argon2Utility.statistics()))
+                .add("grant_write_queue", toJson(grantWriteQueue.statistics()))
+                .add("pending_authorization_requests", authorizationRequestStore.size())
+                .build();
+    }
+
+    private JsonObjectBuilder toJson(HashingStatistics statistics) {
+        return Json.createObjectBuilder()
+                .add("concurrency_limit", statistics.concurrencyLimit())
+                .add("active", statistics.active())
+                .add("queue_depth", statistics.queueDepth())
+                .add("completed", statistics.completed())
+                .add("rejected", statistics.rejected())
+                .add("average_hash_millis", statistics.averageHashMillis());
+    }
+
+    private JsonObjectBuilder toJson(GrantWriteStatistics statistics) {
+        return Json.createObjectBuilder()
+                .add("queue_depth", statistics.queueDepth())
+                .add("remaining_capacity", statistics.remainingCapacity())
+                .add("lag_millis", statistics.lagMillis())
+                .add("written", statistics.written())
+                .add("failed", statistics.failed())
+                .add("synchronous_writes", statistics.synchronousWrites());
+    }
+
+    private JsonObjectBuilder toJson(CacheStatistics statistics) {
+        return Json.createObjectBuilder()
+                .add("hits", statistics.hits())
+                .add("misses", statistics.misses())
+                .add("hit_ratio", statistics.hitRatio())
+                .add("size", statistics.size());
+    }
+}
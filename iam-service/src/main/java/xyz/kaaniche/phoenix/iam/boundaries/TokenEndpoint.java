@@ -1,110 +1,139 @@
 package xyz.kaaniche.phoenix.iam.boundaries;
 
 import jakarta.ejb.EJB;
-import jakarta.inject.Inject;
 import jakarta.json.Json;
+import jakarta.json.JsonBuilderFactory;
 import jakarta.json.JsonObject;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.FormParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.ServiceUnavailableException;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import org.eclipse.microprofile.config.ConfigProvider;
-import xyz.kaaniche.phoenix.iam.controllers.PhoenixIAMRepository;
+import xyz.kaaniche.phoenix.iam.controllers.RoleSet;
 import xyz.kaaniche.phoenix.iam.security.AuthorizationCode;
+import xyz.kaaniche.phoenix.iam.security.ConsumedCodes;
 import xyz.kaaniche.phoenix.iam.security.JwtManager;
+import xyz.kaaniche.phoenix.iam.security.TokenPair;
 
 import java.security.GeneralSecurityException;
-import java.text.ParseException;
+import java.time.Instant;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 @Path("/oauth/token")
 public class TokenEndpoint {
+    private static final JsonBuilderFactory jsonBuilderFactory = Json.createBuilderFactory(Map.of());
     private final Set<String> supportedGrantTypes = Set.of("authorization_code", "refresh_token");
 
-    @Inject
-    private PhoenixIAMRepository phoenixIAMRepository;
-
     @EJB
     private JwtManager jwtManager;
 
+    @EJB
+    private ConsumedCodes consumedCodes;
+
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
-    public Response token(@FormParam("grant_type")String grantType,
-                          @FormParam("code") String authCode,
-                          @FormParam("code_verifier")String codeVerifier) {
+    public CompletionStage<Response> token(@FormParam("grant_type")String grantType,
+                                           @FormParam("code") String authCode,
+                                           @FormParam("code_verifier")String codeVerifier) {
         if (grantType == null || grantType.isEmpty())
-            return responseError("Invalid_request", "grant_type is required", Response.Status.BAD_REQUEST);
+            return completed(responseError("Invalid_request", "grant_type is required", Response.Status.BAD_REQUEST));
 
         if (!supportedGrantTypes.contains(grantType)) {
-            return responseError("unsupported_grant_type", "grant_type should be one of :" + supportedGrantTypes, Response.Status.BAD_REQUEST);
+            return completed(responseError("unsupported_grant_type", "grant_type should be one of :" + supportedGrantTypes, Response.Status.BAD_REQUEST));
         }
+        //Checks stay on the request thread; only the two signatures run, concurrently, on the signing executor
         if("refresh_token".equals(grantType)){
-            var previousAccessToken = jwtManager.validateJWT(authCode);
-            var previousRefreshToken = jwtManager.validateJWT(codeVerifier);
-            if(previousAccessToken.isPresent() && previousRefreshToken.isPresent()){
-                try {
-                    var claimsSet = previousAccessToken.get().getJWTClaimsSet();
-                    var tenantId = claimsSet.getStringClaim("tenant_id");
-                    var subject = claimsSet.getSubject();
-                    var scopes = claimsSet.getStringClaim("scope");
-                    var roles = claimsSet.getStringArrayClaim(jwtManager.getClaimRoles());
-                    var accessToken = jwtManager.generateAccessToken(tenantId,subject,scopes,roles);
-                    var refreshToken = jwtManager.generateRefreshToken(tenantId,subject,scopes);
-                    var refreshClaimSet = previousRefreshToken.get().getJWTClaimsSet();
-                    var refreshSubject = refreshClaimSet.getSubject();
-                    var refreshTenantId = claimsSet.getStringClaim("tenant_id");
-                    var refreshScopes = claimsSet.getStringClaim("scope");
-                    if(refreshScopes.equals(scopes)&&refreshTenantId.equals(tenantId)&&refreshSubject.equals(subject)) {
-                        return Response.ok(Json.createObjectBuilder()
-                                        .add("token_type", "Bearer")
-                                        .add("access_token", accessToken)
-                                        .add("expires_in", ConfigProvider.getConfig().getValue("jwt.lifetime.duration", Integer.class))
-                                        .add("scope", scopes)
-                                        .add("refresh_token", refreshToken)
-                                        .build())
-                                .header("Cache-Control", "no-store")
-                                .header("Pragma", "no-cache")
-                                .build();
-                    }else {
-                        return responseError("Invalid_request", "Can't get token", Response.Status.UNAUTHORIZED);
-                    }
-                } catch (Exception e){
-                    throw new WebApplicationException(e);
+            var previousAccessToken = jwtManager.validateJWT(authCode, JwtManager.ACCESS_TOKEN);
+            var previousRefreshToken = jwtManager.validateJWT(codeVerifier, JwtManager.REFRESH_TOKEN);
+            if(previousAccessToken.isEmpty() || previousRefreshToken.isEmpty()){
+                return completed(responseError("invalid_grant", "Invalid or expired tokens", Response.Status.BAD_REQUEST));
+            }
+            try {
+                var claimsSet = previousAccessToken.get();
+                var tenantId = claimsSet.getStringClaim("tenant_id");
+                var subject = claimsSet.getSubject();
+                var scopes = claimsSet.getStringClaim("scope");
+                var roles = RoleSet.ofIds(claimsSet.getStringListClaim(jwtManager.getClaimRoles()));
+                var refreshClaimSet = previousRefreshToken.get();
+                var refreshSubject = refreshClaimSet.getSubject();
+                var refreshTenantId = refreshClaimSet.getStringClaim("tenant_id");
+                var refreshScopes = refreshClaimSet.getStringClaim("scope");
+                if(!scopes.equals(refreshScopes)||!tenantId.equals(refreshTenantId)||!subject.equals(refreshSubject)) {
+                    return completed(responseError("Invalid_request", "Can't get token", Response.Status.UNAUTHORIZED));
                 }
+                return issue(tenantId,subject,scopes,roles);
+            } catch (WebApplicationException e) {
+                throw e;
+            } catch (Exception e){
+                throw new WebApplicationException(e);
             }
-            return Response.ok().build();
         }
         try {
             AuthorizationCode decoded  = AuthorizationCode.decode(authCode,codeVerifier);
-            assert decoded!=null;
-            String tenantName = decoded.tenantName();
-            String accessToken = jwtManager.generateAccessToken(tenantName, decoded.identityUsername(), decoded.approvedScopes(),phoenixIAMRepository.getRoles(decoded.identityUsername()));
-            String refreshToken = jwtManager.generateRefreshToken(tenantName, decoded.identityUsername(), decoded.approvedScopes());
-            return Response.ok(Json.createObjectBuilder()
-                            .add("token_type", "Bearer")
-                            .add("access_token", accessToken)
-                            .add("expires_in", ConfigProvider.getConfig().getValue("jwt.lifetime.duration",Integer.class))
-                            .add("scope", decoded.approvedScopes())
-                            .add("refresh_token", refreshToken)
-                            .build())
-                    .header("Cache-Control", "no-store")
-                    .header("Pragma", "no-cache")
-                    .build();
+            if (decoded == null || decoded.expirationDate() < Instant.now().getEpochSecond()) {
+                return completed(responseError("invalid_grant", "Invalid or expired code", Response.Status.BAD_REQUEST));
+            }
+            String codeId = AuthorizationCode.idOf(authCode);
+            if (!consumedCodes.consume(codeId, decoded.expirationDate())) {
+                return completed(responseError("invalid_grant", "Code already used", Response.Status.BAD_REQUEST));
+            }
+            try {
+                return issue(decoded.tenantName(), decoded.identityUsername(), decoded.approvedScopes(), RoleSet.of(decoded.roles()));
+            } catch (ServiceUnavailableException e) {
+                //Refused before any token was issued: the 503 tells the client to retry, so the code must stay usable
+                consumedCodes.release(codeId);
+                return completed(e.getResponse());
+            }
         } catch (GeneralSecurityException e) {
-            throw new RuntimeException(e);
+            //A forged or altered code fails its authentication tag
+            return completed(responseError("invalid_grant", "Invalid or expired code", Response.Status.BAD_REQUEST));
         } catch (WebApplicationException e) {
-            return e.getResponse();
+            return completed(e.getResponse());
         } catch (Exception e) {
-            return responseError("Invalid_request", "Can't get token", Response.Status.INTERNAL_SERVER_ERROR);
+            return completed(responseError("Invalid_request", "Can't get token", Response.Status.INTERNAL_SERVER_ERROR));
         }
     }
+
+    private CompletionStage<Response> issue(String tenantId, String subject, String scopes, RoleSet roles) {
+        return jwtManager.generateTokenPair(tenantId, subject, scopes, roles)
+                .thenApply(tokens -> tokenResponse(tokens, scopes))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof WebApplicationException webApplicationException) {
+                        return webApplicationException.getResponse();
+                    }
+                    return responseError("Invalid_request", "Can't get token", Response.Status.INTERNAL_SERVER_ERROR);
+                });
+    }
+
+    private Response tokenResponse(TokenPair tokens, String scopes) {
+        return Response.ok(jsonBuilderFactory.createObjectBuilder()
+                        .add("token_type", "Bearer")
+                        .add("access_token", tokens.accessToken())
+                        .add("expires_in", jwtManager.getJwtLifetimeDuration())
+                        .add("scope", scopes)
+                        .add("refresh_token", tokens.refreshToken())
+                        .build())
+                .header("Cache-Control", "no-store")
+                .header("Pragma", "no-cache")
+                .build();
+    }
+
+    private static CompletionStage<Response> completed(Response response) {
+        return CompletableFuture.completedFuture(response);
+    }
+
     private Response responseError(String error, String errorDescription, Response.Status status) {
-        JsonObject errorResponse = Json.createObjectBuilder()
+        JsonObject errorResponse = jsonBuilderFactory.createObjectBuilder()
                 .add("error", error)
                 .add("error_description", errorDescription)
                 .build();
@@ -9,12 +9,12 @@ import jakarta.interceptor.Interceptor;
 import jakarta.ws.rs.NotAuthorizedException;
 import xyz.kaaniche.phoenix.core.dao.GenericDAO;
 import xyz.kaaniche.phoenix.core.entities.SimplePKEntity;
-import xyz.kaaniche.phoenix.iam.security.IdentityUtility;
+import xyz.kaaniche.phoenix.iam.controllers.PermissionMatrix.Action;
+import xyz.kaaniche.phoenix.iam.security.CallerRoles;
 
-import java.util.EnumMap;
-import java.util.Objects;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 
 @Decorator
@@ -27,87 +27,54 @@ public abstract class AuthorizationDecorator<E extends SimplePKEntity<ID>, ID ex
     @Delegate
     private GenericDAO<E, ID> delegate;
 
-    private final EnumMap<Role, Set<Permission>> roleToPermissions = new EnumMap<>(Role.class);
+    @Inject
+    private PermissionMatrix permissionMatrix;
+
+    @Inject
+    private CallerRoles callerRoles;
 
     @Override
     public <S extends E> S save(S entity) {
-        authorize(SecureAction.SAVE, entity);
+        authorize(Action.SAVE, entity.getClass());
         return delegate.save(entity);
     }
 
+    @Override
+    public <S extends E> List<S> saveAll(Iterable<S> entities) {
+        RoleSet roles = callerRoles();
+        //Copied once: a single-use Iterable would otherwise be exhausted by the check before the delegate saves it
+        List<S> batch = new ArrayList<>();
+        for (S entity : entities) {
+            check(roles, Action.SAVE, entity.getClass());
+            batch.add(entity);
+        }
+        return delegate.saveAll(batch);
+    }
+
     @Override
     public void delete(E entity) {
-        authorize(SecureAction.DELETE, entity);
+        authorize(Action.DELETE, entity.getClass());
         delegate.delete(entity);
     }
 
-    private void authorize(SecureAction action, E entity) {
-        Set<String> roleNames = IdentityUtility.getRoles();
-        if (roleNames == null || roleNames.isEmpty()) {
-            // No authorization check if no roles - could throw exception instead
-            return;
-        }
-
-        Set<Role> roles = roleNames.stream()
-                .map(roleName -> {
-                    try {
-                        return Role.valueOf(roleName.toUpperCase());
-                    } catch (IllegalArgumentException e) {
-                        return null;
-                    }
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
-
-        Set<Permission> permissions = roles.stream()
-                .map(roleToPermissions::get)
-                .filter(Objects::nonNull)
-                .flatMap(Set::stream)
-                .collect(Collectors.toSet());
-
-        ID id = entity.getId();
-        Class<?> type = entity.getClass();
-
-        Permission requiredPermission = new Permission(action, type, id);
-        if (!permissions.contains(requiredPermission)) {
-            throw new NotAuthorizedException("Unauthorized action: " + action.name());
-        }
+    @Override
+    public void deleteAllById(Collection<ID> ids) {
+        authorize(Action.DELETE, delegate.getEntityClass());
+        delegate.deleteAllById(ids);
     }
 
-    private static class Permission {
-        private final String action;
-        private final Class<?> type;
-        private final Object id;
-
-        public Permission(SecureAction action, Class<?> type, Object id) {
-            this.action = action.name();
-            this.type = type;
-            this.id = id;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (!(obj instanceof Permission))
-                return false;
-            Permission that = (Permission) obj;
-            return Objects.equals(action, that.action) &&
-                    Objects.equals(type, that.type) &&
-                    Objects.equals(id, that.id);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(action, type, id);
-        }
+    private void authorize(Action action, Class<?> type) {
+        check(callerRoles(), action, type);
     }
 
-    private enum SecureAction {
-        SAVE, EDIT, DELETE
+    private RoleSet callerRoles() {
+        //An unauthenticated caller is denied rather than let through unchecked
+        return callerRoles.get().orElseThrow(() -> new NotAuthorizedException("Unauthenticated caller"));
     }
 
-    private enum Role {
-        ADMIN, USER
+    private void check(RoleSet roles, Action action, Class<?> type) {
+        if (!permissionMatrix.permits(roles, type, action)) {
+            throw new NotAuthorizedException("Unauthorized action: " + action.name());
+        }
     }
 }
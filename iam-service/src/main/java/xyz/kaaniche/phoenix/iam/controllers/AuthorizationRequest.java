@@ -0,0 +1,27 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+/**
+ * A validated authorization request, held server side between the authorize, login and consent steps.
+ * The requested scopes are a mask of the tenant's {@link ScopeRegistry} at the time of the request.
+ * The identity fields are set once the resource owner has authenticated.
+ */
+public record AuthorizationRequest(String tenantName, String redirectUri, String responseType,
+                                   ScopeRegistry scopeRegistry, long scopes,
+                                   String codeChallenge, String state, long expiresAt,
+                                   Long identityId, String username, Long roles) {
+
+    public AuthorizationRequest(String tenantName, String redirectUri, String responseType,
+                                ScopeRegistry scopeRegistry, long scopes,
+                                String codeChallenge, String state, long expiresAt) {
+        this(tenantName, redirectUri, responseType, scopeRegistry, scopes, codeChallenge, state, expiresAt, null, null, null);
+    }
+
+    public boolean isAuthenticated() {
+        return identityId != null;
+    }
+
+    public AuthorizationRequest authenticatedAs(Long identityId, String username, Long roles) {
+        return new AuthorizationRequest(tenantName, redirectUri, responseType, scopeRegistry, scopes, codeChallenge, state, expiresAt,
+                identityId, username, roles);
+    }
+}
@@ -0,0 +1,159 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.Timer;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import jakarta.ws.rs.ServiceUnavailableException;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import xyz.kaaniche.phoenix.core.util.HashedTimingWheel;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory store of pending authorization requests, addressed by opaque handles.
+ * <p>
+ * Handles are 128 random bits. Requests live for {@code authorization.request.lifetime} seconds and are
+ * expired by a hashed timing wheel driven by a single timer every {@code authorization.request.expiry.tick}
+ * milliseconds; lookups also check the deadline, so the tick only bounds how long expired entries linger.
+ * A request taken or removed before its expiry has its timeout cancelled.
+ * <p>
+ * Unauthenticated callers create entries, so the store holds at most {@code authorization.request.capacity}
+ * of them, and at most {@code authorization.request.capacity.per.client} for any one client: a client filling
+ * its own quota gets 503 until some of its requests expire or complete, without locking the others out.
+ */
+@Startup
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class AuthorizationRequestStore {
+    public static final String REQUEST_URI_PREFIX = "urn:ietf:params:oauth:request_uri:";
+
+    private final Config config = ConfigProvider.getConfig();
+    private final Long lifetime = config.getValue("authorization.request.lifetime", Long.class);
+    private final Long tick = config.getValue("authorization.request.expiry.tick", Long.class);
+    private final Long capacity = config.getValue("authorization.request.capacity", Long.class);
+    private final Long capacityPerClient = config.getValue("authorization.request.capacity.per.client", Long.class);
+    private final Long retryAfter = config.getValue("authorization.request.retry.after", Long.class);
+
+    private record Entry(AuthorizationRequest request, HashedTimingWheel.Timeout<String> timeout) {
+    }
+
+    private final Map<String, Entry> requests = new ConcurrentHashMap<>();
+    //Clients are registered tenants, so this map is bounded by their number
+    private final Map<String, AtomicLong> pendingByClient = new ConcurrentHashMap<>();
+    private final HashedTimingWheel<String> expirations =
+            new HashedTimingWheel<>(tick, (int) Math.min(1L << 16, lifetime * 1000L / tick + 1L), System.currentTimeMillis());
+    private final SecureRandom random = new SecureRandom();
+
+    @Resource
+    private TimerService timerService;
+
+    @PostConstruct
+    public void start() {
+        timerService.createIntervalTimer(tick, tick, new TimerConfig("authorization-request-expiry", false));
+    }
+
+    @Timeout
+    public void onExpiryTimeout(Timer timer) {
+        expirations.advance(System.currentTimeMillis(), handle -> {
+            Entry expired = requests.remove(handle);
+            if (expired != null) {
+                release(expired.request());
+            }
+        });
+    }
+
+    public long getLifetime() {
+        return lifetime;
+    }
+
+    /**
+     * @return the expiry, in epoch seconds, of a request stored now
+     */
+    public long nextExpiry() {
+        return Instant.now().getEpochSecond() + lifetime;
+    }
+
+    /**
+     * @return the handle of the stored request
+     * @throws ServiceUnavailableException with a Retry-After hint when the store, or the client's quota, is full
+     */
+    public String save(AuthorizationRequest request) {
+        if (requests.size() >= capacity) {
+            throw new ServiceUnavailableException(retryAfter);
+        }
+        AtomicLong pending = pendingByClient.computeIfAbsent(request.tenantName(), client -> new AtomicLong());
+        if (pending.incrementAndGet() > capacityPerClient) {
+            pending.decrementAndGet();
+            throw new ServiceUnavailableException(retryAfter);
+        }
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String handle = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        requests.put(handle, new Entry(request, expirations.schedule(handle, request.expiresAt() * 1000L)));
+        return handle;
+    }
+
+    public Optional<AuthorizationRequest> find(String handle) {
+        Entry entry = handle == null ? null : requests.get(handle);
+        return live(entry == null ? null : entry.request());
+    }
+
+    /**
+     * Removes a request and returns it, so that a handle can be redeemed only once.
+     */
+    public Optional<AuthorizationRequest> take(String handle) {
+        return live(evict(handle));
+    }
+
+    private static Optional<AuthorizationRequest> live(AuthorizationRequest request) {
+        if (request == null || request.expiresAt() < Instant.now().getEpochSecond()) {
+            return Optional.empty();
+        }
+        return Optional.of(request);
+    }
+
+    /**
+     * Replaces a request, e.g. once its resource owner has authenticated. The expiry is unchanged.
+     */
+    public void update(String handle, AuthorizationRequest request) {
+        requests.computeIfPresent(handle, (key, entry) -> new Entry(request, entry.timeout()));
+    }
+
+    public void remove(String handle) {
+        evict(handle);
+    }
+
+    private AuthorizationRequest evict(String handle) {
+        Entry entry = handle == null ? null : requests.remove(handle);
+        if (entry == null) {
+            return null;
+        }
+        expirations.cancel(entry.timeout());
+        release(entry.request());
+        return entry.request();
+    }
+
+    private void release(AuthorizationRequest request) {
+        pendingByClient.get(request.tenantName()).decrementAndGet();
+    }
+
+    public int size() {
+        return requests.size();
+    }
+}
@@ -0,0 +1,80 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import xyz.kaaniche.phoenix.iam.entities.Grant;
+import xyz.kaaniche.phoenix.iam.entities.GrantPK;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Consent state per (tenant, identity). Known grants are kept for {@code grant.cache.ttl} seconds,
+ * missing ones for the shorter {@code grant.cache.negative.ttl} so that a fresh consent shows up quickly.
+ * <p>
+ * Cached grants are detached copies carrying only the key, the approved scopes and the issuance time.
+ */
+@ApplicationScoped
+public class GrantCache {
+    private record Entry(Optional<Grant> grant, long expiresAt) {
+    }
+
+    private final Config config = ConfigProvider.getConfig();
+    private final long ttl = config.getValue("grant.cache.ttl", Long.class) * 1000L;
+    private final long negativeTtl = config.getValue("grant.cache.negative.ttl", Long.class) * 1000L;
+    private final int maximumSize = config.getValue("grant.cache.size", Integer.class);
+    private final Map<GrantPK, Entry> entries = new ConcurrentHashMap<>();
+
+    public Optional<Grant> get(GrantPK key, Function<GrantPK, Optional<Grant>> loader) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt() >= now) {
+            return entry.grant();
+        }
+        Optional<Grant> grant = loader.apply(key).map(GrantCache::copyOf);
+        entries.put(key, new Entry(grant, now + (grant.isPresent() ? ttl : negativeTtl)));
+        if (entries.size() > maximumSize) {
+            evict(now);
+        }
+        return grant;
+    }
+
+    /**
+     * Publishes a grant ahead of its persistence so that the next login already sees it.
+     */
+    public void put(Grant grant) {
+        Grant copy = copyOf(grant);
+        entries.put(copy.getId(), new Entry(Optional.of(copy), System.currentTimeMillis() + ttl));
+    }
+
+    public void invalidate(GrantPK key) {
+        entries.remove(key);
+    }
+
+    void onGrantChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) GrantChanged event) {
+        invalidate(event.grantId());
+    }
+
+    private void evict(long now) {
+        entries.values().removeIf(entry -> entry.expiresAt() < now);
+        Iterator<GrantPK> keys = entries.keySet().iterator();
+        while (entries.size() > maximumSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static Grant copyOf(Grant grant) {
+        Grant copy = new Grant();
+        copy.setId(new GrantPK(grant.getId().getTenantId(), grant.getId().getIdentityId()));
+        copy.setApprovedScopes(grant.getApprovedScopes());
+        copy.setIssuanceDateTime(grant.getIssuanceDateTime());
+        return copy;
+    }
+}
@@ -0,0 +1,22 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import xyz.kaaniche.phoenix.iam.entities.Grant;
+import xyz.kaaniche.phoenix.iam.entities.GrantPK;
+
+public class GrantCacheInvalidator {
+    @Inject
+    private Event<GrantChanged> grantChanged;
+
+    //Callbacks run at flush: the cache is only invalidated by the AFTER_SUCCESS observer, once the write is visible
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onGrantChanged(Grant grant) {
+        grantChanged.fire(new GrantChanged(new GrantPK(grant.getId().getTenantId(), grant.getId().getIdentityId())));
+    }
+}
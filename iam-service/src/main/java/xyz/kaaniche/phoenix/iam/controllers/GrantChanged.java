@@ -0,0 +1,9 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import xyz.kaaniche.phoenix.iam.entities.GrantPK;
+
+/**
+ * Fired by {@link GrantCacheInvalidator} when a grant is written; observed once the transaction commits.
+ */
+public record GrantChanged(GrantPK grantId) {
+}
@@ -0,0 +1,220 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.Timer;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import jakarta.ejb.TransactionManagement;
+import jakarta.ejb.TransactionManagementType;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import jakarta.transaction.Status;
+import jakarta.transaction.SystemException;
+import jakarta.transaction.UserTransaction;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import xyz.kaaniche.phoenix.iam.entities.Grant;
+import xyz.kaaniche.phoenix.iam.entities.GrantPK;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind persistence of consent grants.
+ * <p>
+ * Approved grants are published to the {@link GrantCache} at once and queued, one per (tenant, identity): a newer
+ * grant replaces the one still queued for the same key. A timer drains the queue every
+ * {@code grant.persistence.flush.interval} milliseconds and writes each batch of {@code grant.persistence.batch.size}
+ * grants as a single multi-row {@code insert ... on duplicate key update}, in one transaction and without reading the
+ * rows first. With {@code grant.persistence.synchronous} set, or when the queue is full, the grant is written by the
+ * calling thread instead, after any batch being written and in place of any queued grant for the same key, so that an
+ * older grant never overwrites it.
+ * <p>
+ * The statement bypasses the entity listeners, which is fine here: the cache already holds what is written.
+ * A failed batch is rolled back, logged and evicted from the cache: the affected users are asked for consent again.
+ */
+@Startup
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionManagement(TransactionManagementType.BEAN)
+public class GrantWriteQueue {
+    private record PendingGrant(Grant grant, long enqueuedAt) {
+    }
+
+    private static final String UPSERT = "insert into issued_grants (tenant_id, identity_id, approved_scopes, issuance_date_time) values ";
+    private static final String ON_DUPLICATE_KEY = " on duplicate key update approved_scopes = values(approved_scopes),"
+            + " issuance_date_time = values(issuance_date_time)";
+
+    private final Config config = ConfigProvider.getConfig();
+    private final boolean synchronous = config.getValue("grant.persistence.synchronous", Boolean.class);
+    private final Long flushInterval = config.getValue("grant.persistence.flush.interval", Long.class);
+    private final int batchSize = config.getValue("grant.persistence.batch.size", Integer.class);
+    private final int capacity = config.getValue("grant.persistence.queue.size", Integer.class);
+    //Guarded by itself, in order of submission. Writes are guarded by this bean, always taken first
+    private final Map<GrantPK, PendingGrant> queue = new LinkedHashMap<>();
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder synchronousWrites = new LongAdder();
+
+    @Inject
+    private EntityManager entityManager;
+
+    @Resource
+    private UserTransaction userTransaction;
+
+    @Resource
+    private TimerService timerService;
+
+    @Inject
+    private GrantCache grantCache;
+
+    @Inject
+    private Logger logger;
+
+    @PostConstruct
+    public void start() {
+        if (!synchronous) {
+            timerService.createIntervalTimer(flushInterval, flushInterval, new TimerConfig("grant-write-behind", false));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+
+    @Timeout
+    public void onFlushTimeout(Timer timer) {
+        flush();
+    }
+
+    public void submit(GrantPK key, String approvedScopes) {
+        Grant grant = new Grant();
+        grant.setId(key);
+        grant.setApprovedScopes(approvedScopes);
+        grant.setIssuanceDateTime(LocalDateTime.now());
+        PendingGrant pending = new PendingGrant(grant, System.currentTimeMillis());
+        if (synchronous || !enqueue(pending)) {
+            synchronousWrites.increment();
+            writeThrough(pending);
+        }
+    }
+
+    public synchronized void flush() {
+        for (List<PendingGrant> batch = drain(); !batch.isEmpty(); batch = drain()) {
+            write(batch);
+        }
+    }
+
+    public GrantWriteStatistics statistics() {
+        synchronized (queue) {
+            Iterator<PendingGrant> pending = queue.values().iterator();
+            return new GrantWriteStatistics(queue.size(), capacity - queue.size(),
+                    pending.hasNext() ? System.currentTimeMillis() - pending.next().enqueuedAt() : 0L,
+                    written.sum(), failed.sum(), synchronousWrites.sum());
+        }
+    }
+
+    private boolean enqueue(PendingGrant pending) {
+        synchronized (queue) {
+            GrantPK key = pending.grant().getId();
+            if (queue.remove(key) == null && queue.size() >= capacity) {
+                return false;
+            }
+            queue.put(key, pending);
+            grantCache.put(pending.grant());
+            return true;
+        }
+    }
+
+    /**
+     * Written under the flush lock: a batch already drained, which may hold an older grant for the same key,
+     * is written before this one, and a grant still queued for the key is dropped in its favour.
+     */
+    private synchronized void writeThrough(PendingGrant pending) {
+        synchronized (queue) {
+            queue.remove(pending.grant().getId());
+            grantCache.put(pending.grant());
+        }
+        write(List.of(pending));
+    }
+
+    private List<PendingGrant> drain() {
+        synchronized (queue) {
+            List<PendingGrant> batch = new ArrayList<>(Math.min(batchSize, queue.size()));
+            for (Iterator<PendingGrant> pending = queue.values().iterator(); pending.hasNext() && batch.size() < batchSize; ) {
+                batch.add(pending.next());
+                pending.remove();
+            }
+            return batch;
+        }
+    }
+
+    private void write(List<PendingGrant> batch) {
+        try {
+            //Each batch gets its own transaction, apart from whatever transaction the caller holds
+            userTransaction.begin();
+            upsert(batch).executeUpdate();
+            userTransaction.commit();
+            written.add(batch.size());
+        } catch (Exception e) {
+            rollback();
+            failed.add(batch.size());
+            logger.log(Level.SEVERE, "Unable to persist " + batch.size() + " grant(s)", e);
+            for (PendingGrant pending : batch) {
+                grantCache.invalidate(pending.grant().getId());
+            }
+        }
+    }
+
+    /**
+     * One statement and one round trip for the whole batch. Keys are unique within a batch, as the queue holds
+     * one grant per key.
+     */
+    private Query upsert(List<PendingGrant> batch) {
+        StringBuilder sql = new StringBuilder(UPSERT);
+        for (int row = 0; row < batch.size(); row++) {
+            int position = 4 * row;
+            sql.append(row == 0 ? "(" : ", (").append('?').append(position + 1).append(", ?").append(position + 2)
+                    .append(", ?").append(position + 3).append(", ?").append(position + 4).append(')');
+        }
+        Query query = entityManager.createNativeQuery(sql.append(ON_DUPLICATE_KEY).toString());
+        int position = 0;
+        for (PendingGrant pending : batch) {
+            Grant grant = pending.grant();
+            query.setParameter(++position, grant.getId().getTenantId());
+            query.setParameter(++position, grant.getId().getIdentityId());
+            query.setParameter(++position, grant.getApprovedScopes());
+            query.setParameter(++position, grant.getIssuanceDateTime());
+        }
+        return query;
+    }
+
+    private void rollback() {
+        try {
+            if (userTransaction.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                userTransaction.rollback();
+            }
+        } catch (SystemException e) {
+            logger.log(Level.WARNING, "Unable to roll back a grant batch", e);
+        }
+    }
+}
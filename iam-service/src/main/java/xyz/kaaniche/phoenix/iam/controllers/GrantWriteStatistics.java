@@ -0,0 +1,5 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+public record GrantWriteStatistics(int queueDepth, int remainingCapacity, long lagMillis,
+                                   long written, long failed, long synchronousWrites) {
+}
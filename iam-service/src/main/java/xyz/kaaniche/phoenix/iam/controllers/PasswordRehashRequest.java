@@ -0,0 +1,8 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+/**
+ * Fired after a successful login verified against a hash with outdated parameters.
+ * The password copy is wiped once the new hash has been computed.
+ */
+public record PasswordRehashRequest(Long identityId, String currentHash, char[] password) {
+}
@@ -0,0 +1,29 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.ObservesAsync;
+import jakarta.inject.Inject;
+import xyz.kaaniche.phoenix.iam.security.Argon2Utility;
+
+import java.util.logging.Logger;
+
+@ApplicationScoped
+public class PasswordRehashService {
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private PhoenixIAMRepository phoenixIAMRepository;
+
+    public void rehash(@ObservesAsync PasswordRehashRequest request) {
+        try {
+            String hash = Argon2Utility.hash(request.password());
+            if (phoenixIAMRepository.updatePassword(request.identityId(), request.currentHash(), hash)) {
+                logger.info("Upgraded password hash of identity:" + request.identityId());
+            }
+        } catch (RuntimeException e) {
+            //Not fatal: the hash is upgraded on a later login
+            logger.warning("Unable to upgrade password hash of identity:" + request.identityId() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Write permissions compiled from the {@code permission.<Entity>.<action>=<role>,...} configuration keys,
+ * where {@code <Entity>} is the simple name of the entity class. Each (entity type, action) pair holds the
+ * bitmask of the roles allowed to perform it, so that a check is a lookup and a bitwise AND, plus two flags
+ * for {@link Role#GUEST} and {@link Role#ROOT}, whose values are not single bits.
+ * <p>
+ * Pairs without configuration are denied to everyone.
+ */
+@ApplicationScoped
+public class PermissionMatrix {
+    public enum Action {
+        SAVE, EDIT, DELETE
+    }
+
+    private record Rule(long mask, boolean guest, boolean root) {
+        private static final Rule DENY_ALL = new Rule(0L, false, false);
+
+        boolean permits(RoleSet roles) {
+            long bits = roles.bits();
+            return (bits & mask) != 0L
+                    || (guest && bits == Role.GUEST.getValue())
+                    || (root && bits == Role.ROOT.getValue());
+        }
+    }
+
+    private static final String PREFIX = "permission.";
+    private static final Rule[] NONE = newRules();
+
+    private final Map<String, Rule[]> byEntityName = compile(ConfigProvider.getConfig());
+
+    private final ClassValue<Rule[]> byType = new ClassValue<>() {
+        @Override
+        protected Rule[] computeValue(Class<?> type) {
+            //Walk up the hierarchy so that Hibernate proxies resolve to their entity
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                Rule[] rules = byEntityName.get(current.getSimpleName());
+                if (rules != null) {
+                    return rules;
+                }
+            }
+            return NONE;
+        }
+    };
+
+    public boolean permits(RoleSet roles, Class<?> type, Action action) {
+        return byType.get(type)[action.ordinal()].permits(roles);
+    }
+
+    private static Rule[] newRules() {
+        Rule[] rules = new Rule[Action.values().length];
+        Arrays.fill(rules, Rule.DENY_ALL);
+        return rules;
+    }
+
+    private static Map<String, Rule[]> compile(Config config) {
+        Map<String, Rule[]> byEntityName = new HashMap<>();
+        for (String name : config.getPropertyNames()) {
+            if (!name.startsWith(PREFIX)) {
+                continue;
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot <= PREFIX.length()) {
+                throw new IllegalArgumentException("Illegal permission key: " + name);
+            }
+            Action action = Action.valueOf(name.substring(dot + 1).toUpperCase());
+            long mask = 0L;
+            boolean guest = false;
+            boolean root = false;
+            for (String roleId : config.getValues(name, String.class)) {
+                Role role = Role.byId(roleId);
+                if (role == null) {
+                    throw new IllegalArgumentException("Unknown role " + roleId + " in " + name);
+                }
+                //ROOT is every bit set and GUEST none: OR-ing them in would let any role through, or nobody
+                if (role == Role.GUEST) {
+                    guest = true;
+                } else if (role == Role.ROOT) {
+                    root = true;
+                } else {
+                    mask |= role.getValue();
+                }
+            }
+            byEntityName.computeIfAbsent(name.substring(PREFIX.length(), dot), entity -> newRules())
+                    [action.ordinal()] = new Rule(mask, guest, root);
+        }
+        return Map.copyOf(byEntityName);
+    }
+}
@@ -3,24 +3,42 @@ package xyz.kaaniche.phoenix.iam.controllers;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.TypedQuery;
+import jakarta.transaction.Transactional;
 import xyz.kaaniche.phoenix.iam.entities.Grant;
+import xyz.kaaniche.phoenix.iam.entities.GrantPK;
 import xyz.kaaniche.phoenix.iam.entities.Identity;
+import xyz.kaaniche.phoenix.iam.entities.IdentityCredentials;
 import xyz.kaaniche.phoenix.iam.entities.Tenant;
 
-import java.util.HashSet;
 import java.util.Optional;
-import java.util.Set;
 
 @Singleton
 public class PhoenixIAMRepository {
     @Inject
     private EntityManager entityManager;
 
+    @Inject
+    private TenantCache tenantCache;
+
+    @Inject
+    private GrantCache grantCache;
+
+    @Inject
+    private GrantWriteQueue grantWriteQueue;
+
     public Tenant findTenantByName(String name){
-        return entityManager.createQuery("select t from Tenant t where name =:name",Tenant.class)
-                .setParameter("name",name)
-                .getSingleResult();
+        return tenantCache.findByName(name);
+    }
+
+    public ScopeRegistry findScopeRegistry(String tenantName){
+        return tenantCache.findScopes(tenantName);
+    }
+
+    public Optional<IdentityCredentials> findCredentialsByUsername(String username){
+        return entityManager.createNamedQuery(Identity.FIND_CREDENTIALS_BY_USERNAME,IdentityCredentials.class)
+                .setParameter("username",username)
+                .getResultStream()
+                .findFirst();
     }
 
     public Identity findIdentityByUsername(String username){
@@ -29,30 +47,57 @@ public class PhoenixIAMRepository {
                 .getSingleResult();
     }
 
+    /**
+     * Replaces the password hash only if it still holds the value that was verified,
+     * so that a concurrent password change is never overwritten.
+     */
+    @Transactional
+    public boolean updatePassword(Long identityId, String currentHash, String newHash){
+        return entityManager.createQuery("update Identity i set i.password = :newHash where i.id = :id and i.password = :currentHash")
+                .setParameter("newHash",newHash)
+                .setParameter("id",identityId)
+                .setParameter("currentHash",currentHash)
+                .executeUpdate() == 1;
+    }
+
     public Optional<Grant> findGrant(String tenantName,Long identityId){
         Tenant tenant = findTenantByName(tenantName);
         if(tenant==null){
             throw new IllegalArgumentException("Invalid Client Id!");
         }
-        return Optional.of(entityManager.createQuery("select g from Grant g where g.id.tenantId =:tenantId and g.id.identityId = :identityId",Grant.class)
-                .setParameter("tenantId",tenant.getId())
-                .setParameter("identityId",identityId)
-                .getSingleResult());
-    }
-    public String[] getRoles(String username){
-        TypedQuery<Long> query = entityManager.createQuery("select i.roles from Identity i where username=:username",Long.class);
-        query.setParameter("username",username);
-        Long roles = query.getSingleResult();
-        Set<String> ret = new HashSet<>();
-        for(Role role:Role.values()){
-            if((roles&role.getValue())!=0L){
-                String value = Role.byValue(role.getValue());
-                if (value==null){
-                    continue;
-                }
-                ret.add(value);
-            }
+        return grantCache.get(new GrantPK(tenant.getId(),identityId),this::loadGrant);
+    }
+
+    public void saveGrant(String tenantName,Long identityId,String approvedScopes){
+        Tenant tenant = findTenantByName(tenantName);
+        if(tenant==null){
+            throw new IllegalArgumentException("Invalid Client Id!");
         }
-        return ret.toArray(new String[0]);
+        grantWriteQueue.submit(new GrantPK(tenant.getId(),identityId),approvedScopes);
+    }
+
+    @Transactional
+    public void revokeGrant(String tenantName,Long identityId){
+        Tenant tenant = findTenantByName(tenantName);
+        if(tenant==null){
+            throw new IllegalArgumentException("Invalid Client Id!");
+        }
+        //A grant still waiting in the write-behind queue would otherwise be written back after the delete
+        grantWriteQueue.flush();
+        GrantPK key = new GrantPK(tenant.getId(),identityId);
+        entityManager.createQuery("delete from Grant g where g.id.tenantId =:tenantId and g.id.identityId = :identityId")
+                .setParameter("tenantId",key.getTenantId())
+                .setParameter("identityId",key.getIdentityId())
+                .executeUpdate();
+        //Bulk statements bypass the entity callbacks
+        grantCache.invalidate(key);
+    }
+
+    private Optional<Grant> loadGrant(GrantPK key){
+        return entityManager.createQuery("select g from Grant g where g.id.tenantId =:tenantId and g.id.identityId = :identityId",Grant.class)
+                .setParameter("tenantId",key.getTenantId())
+                .setParameter("identityId",key.getIdentityId())
+                .getResultStream()
+                .findFirst();
     }
 }
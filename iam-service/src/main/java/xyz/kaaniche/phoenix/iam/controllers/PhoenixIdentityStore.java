@@ -8,7 +8,9 @@ import jakarta.security.enterprise.credential.UsernamePasswordCredential;
 import jakarta.security.enterprise.identitystore.CredentialValidationResult;
 import jakarta.security.enterprise.identitystore.IdentityStore;
 import jakarta.transaction.Transactional;
+import jakarta.ws.rs.ServiceUnavailableException;
 import xyz.kaaniche.phoenix.iam.entities.Identity;
+import xyz.kaaniche.phoenix.iam.entities.IdentityCredentials;
 import xyz.kaaniche.phoenix.iam.security.Argon2Utility;
 
 import java.util.*;
@@ -28,34 +30,23 @@ public class PhoenixIdentityStore implements IdentityStore {
     }
     private CredentialValidationResult validate(UsernamePasswordCredential upc){
         try {
-            Identity identity = entityManager.
-                    createQuery("select i from Identity i where i.username = :username",Identity.class).
-                    setParameter("username",upc.getCaller()).getSingleResult();
-            Objects.requireNonNull(identity,"Identity should be not null");
-            if(Argon2Utility.check(identity.getPassword(),upc.getPassword().getValue())){
-                return new CredentialValidationResult(upc.getCaller(),toCallerGroups(identity.getRoles()));
+            Optional<IdentityCredentials> identity = entityManager.
+                    createNamedQuery(Identity.FIND_CREDENTIALS_BY_USERNAME,IdentityCredentials.class).
+                    setParameter("username",upc.getCaller()).getResultStream().findFirst();
+            //An unknown caller is verified against a dummy hash of the same cost, so it answers no faster
+            boolean verified = Argon2Utility.check(identity.map(IdentityCredentials::password)
+                    .orElseGet(Argon2Utility::dummyHash),upc.getPassword().getValue());
+            if(verified && identity.isPresent()){
+                return new CredentialValidationResult(upc.getCaller(),RoleSet.of(identity.get().roles()).asSet());
             }
             return CredentialValidationResult.INVALID_RESULT;
+        }catch (ServiceUnavailableException e){
+            throw e;
         }catch (Throwable e){
             return CredentialValidationResult.INVALID_RESULT;
         }
     }
 
-    private Set<String> toCallerGroups(Long roles){
-        if(roles == 0L) return Collections.singleton(Role.GUEST.id());
-        if(roles == Long.MAX_VALUE) return Collections.singleton(Role.ROOT.id());
-        if (roles<0L){
-            throw new IllegalArgumentException("Permission level cannot be negative");
-        }
-        Set<String> ret = new HashSet<>();
-        for(long value = 1L; value<=62L; ++value){
-            if((value&roles) !=0){
-                ret.add(Role.byValue(value));
-            }
-        }
-        return ret;
-    }
-
     @Override
     public Set<String> getCallerGroups(CredentialValidationResult validationResult) {
         return validationResult.getCallerGroups();
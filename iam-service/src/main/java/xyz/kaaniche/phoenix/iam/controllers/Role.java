@@ -2,7 +2,6 @@ package xyz.kaaniche.phoenix.iam.controllers;
 
 import org.eclipse.microprofile.config.ConfigProvider;
 
-import java.security.Permission;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +38,7 @@ public enum Role {
 
     private static final Map<Long,String> ids = new LinkedHashMap<>();
     private static final Map<String,Role> byIds = new LinkedHashMap<>();
+    private static final String[] idsByBit = new String[63];
 
     static {
         final AtomicLong id = new AtomicLong(1L);
@@ -55,6 +55,7 @@ public enum Role {
         byIds.put(GUEST.name().toLowerCase(),GUEST);
         byIds.put(ROOT.name().toLowerCase(),ROOT);
         byIds.putAll(customRoles.stream().collect(Collectors.toMap(Function.identity(),x -> values[ordinal.getAndIncrement()])));
+        customRoles.toArray(idsByBit);
     }
 
     public final String id(){
@@ -68,4 +69,12 @@ public enum Role {
     public static Role byId(String id){
         return byIds.get(id);
     }
+
+    /**
+     * @param bit a bit position between 0 and 62
+     * @return the configured id of the role owning that bit, or null if no role is configured for it
+     */
+    static String idOfBit(int bit){
+        return idsByBit[bit];
+    }
 }
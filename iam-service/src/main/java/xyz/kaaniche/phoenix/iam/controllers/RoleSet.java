@@ -0,0 +1,114 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Immutable set of roles backed by the {@code identities.roles} bitmask.
+ * <p>
+ * {@code 0} stands for {@link Role#GUEST} and {@link Long#MAX_VALUE} for {@link Role#ROOT};
+ * any other value holds one bit per configured role.
+ */
+public final class RoleSet {
+    private static final RoleSet GUEST = new RoleSet(Role.GUEST.getValue());
+    private static final RoleSet ROOT = new RoleSet(Role.ROOT.getValue());
+
+    private final long bits;
+    private final String[] ids;
+    private final Set<String> idSet;
+
+    private RoleSet(long bits) {
+        this.bits = bits;
+        this.ids = decode(bits);
+        this.idSet = Set.of(ids);
+    }
+
+    public static RoleSet of(long bits) {
+        if (bits < 0L) {
+            throw new IllegalArgumentException("Permission level cannot be negative");
+        }
+        if (bits == GUEST.bits) {
+            return GUEST;
+        }
+        if (bits == ROOT.bits) {
+            return ROOT;
+        }
+        return new RoleSet(bits);
+    }
+
+    /**
+     * Rebuilds a role set from role ids, e.g. the groups claim of a token. Unknown ids are ignored.
+     */
+    public static RoleSet ofIds(Collection<String> roleIds) {
+        long bits = 0L;
+        for (String roleId : roleIds) {
+            Role role = Role.byId(roleId);
+            if (role == Role.ROOT) {
+                return ROOT;
+            }
+            if (role != null) {
+                bits |= role.getValue();
+            }
+        }
+        return of(bits);
+    }
+
+    public long bits() {
+        return bits;
+    }
+
+    public boolean contains(Role role) {
+        return switch (role) {
+            case GUEST -> bits == Role.GUEST.getValue();
+            case ROOT -> bits == Role.ROOT.getValue();
+            default -> (bits & role.getValue()) != 0L;
+        };
+    }
+
+    public boolean contains(String roleId) {
+        Role role = Role.byId(roleId);
+        return role != null && contains(role);
+    }
+
+    public String[] ids() {
+        return ids.clone();
+    }
+
+    public Set<String> asSet() {
+        return idSet;
+    }
+
+    private static String[] decode(long bits) {
+        if (bits == Role.GUEST.getValue()) {
+            return new String[]{Role.GUEST.id()};
+        }
+        if (bits == Role.ROOT.getValue()) {
+            return new String[]{Role.ROOT.id()};
+        }
+        String[] decoded = new String[Long.bitCount(bits)];
+        int count = 0;
+        for (long remaining = bits; remaining != 0L; remaining &= remaining - 1L) {
+            String id = Role.idOfBit(Long.numberOfTrailingZeros(remaining));
+            if (id != null) {
+                decoded[count++] = id;
+            }
+        }
+        return count == decoded.length ? decoded : Arrays.copyOf(decoded, count);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof RoleSet that && bits == that.bits);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(bits);
+    }
+
+    @Override
+    public String toString() {
+        return idSet.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scopes of one tenant, interned into bit positions in the order of {@code Tenant.requiredScopes}.
+ * <p>
+ * Scope strings become bitmasks, so intersections, subset checks and consent diffs are bitwise;
+ * a mask is rendered back to its canonical space-separated form only when a code or token is issued.
+ * Names the tenant does not declare are ignored. Parsed strings and rendered masks are memoized.
+ */
+public final class ScopeRegistry {
+    private static final int MEMO_SIZE = 1024;
+
+    private final String[] names;
+    private final Map<String, Long> bits;
+    private final Map<String, Long> parsed = new ConcurrentHashMap<>();
+    private final Map<Long, String> rendered = new ConcurrentHashMap<>();
+
+    private ScopeRegistry(String[] names, Map<String, Long> bits) {
+        this.names = names;
+        this.bits = bits;
+    }
+
+    public static ScopeRegistry of(String scopes) {
+        Map<String, Long> bits = new LinkedHashMap<>();
+        if (scopes != null) {
+            for (String name : scopes.trim().split("\\s+")) {
+                if (!name.isEmpty() && !bits.containsKey(name)) {
+                    if (bits.size() == Long.SIZE) {
+                        throw new IllegalArgumentException("A tenant cannot declare more than 64 scopes");
+                    }
+                    bits.put(name, 1L << bits.size());
+                }
+            }
+        }
+        return new ScopeRegistry(bits.keySet().toArray(new String[0]), Map.copyOf(bits));
+    }
+
+    /**
+     * @return the mask of every scope of the tenant
+     */
+    public long all() {
+        return names.length == Long.SIZE ? -1L : (1L << names.length) - 1L;
+    }
+
+    public long parse(String scopes) {
+        if (scopes == null || scopes.isEmpty()) {
+            return 0L;
+        }
+        Long mask = parsed.get(scopes);
+        if (mask == null) {
+            mask = 0L;
+            for (String name : scopes.split(" ")) {
+                mask |= bits.getOrDefault(name, 0L);
+            }
+            if (parsed.size() < MEMO_SIZE) {
+                parsed.put(scopes, mask);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @return the scopes of the mask, space-separated in declaration order
+     */
+    public String render(long mask) {
+        String scopes = rendered.get(mask);
+        if (scopes == null) {
+            StringBuilder sb = new StringBuilder();
+            for (long remaining = mask & all(); remaining != 0L; remaining &= remaining - 1L) {
+                if (!sb.isEmpty()) {
+                    sb.append(' ');
+                }
+                sb.append(names[Long.numberOfTrailingZeros(remaining)]);
+            }
+            scopes = sb.toString();
+            if (rendered.size() < MEMO_SIZE) {
+                rendered.put(mask, scopes);
+            }
+        }
+        return scopes;
+    }
+
+    /**
+     * @return true if every requested scope is granted
+     */
+    public static boolean covers(long granted, long requested) {
+        return (requested & ~granted) == 0L;
+    }
+}
@@ -0,0 +1,128 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.Timer;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import xyz.kaaniche.phoenix.iam.entities.Tenant;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-through copy of the tenants table, indexed by name and by id, with the {@link ScopeRegistry} of each tenant.
+ * <p>
+ * The whole table is loaded at startup and reloaded on the next lookup after an invalidation,
+ * which every committed tenant write triggers through {@link TenantChanged}. A periodic reload
+ * picks up changes made by other nodes.
+ */
+@Startup
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TenantCache {
+    private record Snapshot(Map<String, Tenant> byName, Map<Short, Tenant> byId, Map<String, ScopeRegistry> scopesByName) {
+    }
+
+    private final Config config = ConfigProvider.getConfig();
+    private final Long refreshInterval = config.getValue("tenant.cache.refresh.interval", Long.class);
+
+    @Inject
+    private EntityManager entityManager;
+
+    @Resource
+    private TimerService timerService;
+
+    private volatile Snapshot snapshot;
+    private volatile boolean stale = true;
+
+    @PostConstruct
+    public void start() {
+        reload();
+        timerService.createIntervalTimer(refreshInterval * 1000L, refreshInterval * 1000L,
+                new TimerConfig("tenant-cache-refresh", false));
+    }
+
+    @Timeout
+    public void onRefreshTimeout(Timer timer) {
+        reload();
+    }
+
+    public Tenant findByName(String name) {
+        return name == null ? null : current().byName().get(name);
+    }
+
+    public Tenant findById(Short id) {
+        return id == null ? null : current().byId().get(id);
+    }
+
+    public ScopeRegistry findScopes(String name) {
+        return name == null ? null : current().scopesByName().get(name);
+    }
+
+    /**
+     * Marks the cache stale so that the next lookup reloads it. To be called after any
+     * tenant update that does not go through the JPA entity callbacks.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    public void onTenantChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) TenantChanged event) {
+        invalidate();
+    }
+
+    public synchronized void reload() {
+        Map<String, Tenant> byName = new HashMap<>();
+        Map<Short, Tenant> byId = new HashMap<>();
+        Map<String, ScopeRegistry> scopesByName = new HashMap<>();
+        stale = false;
+        for (Tenant tenant : entityManager.createQuery("select t from Tenant t", Tenant.class).getResultList()) {
+            Tenant copy = copyOf(tenant);
+            byName.put(copy.getName(), copy);
+            byId.put(copy.getId(), copy);
+            scopesByName.put(copy.getName(), ScopeRegistry.of(copy.getRequiredScopes()));
+        }
+        snapshot = new Snapshot(Map.copyOf(byName), Map.copyOf(byId), Map.copyOf(scopesByName));
+    }
+
+    private Snapshot current() {
+        if (stale) {
+            reloadIfStale();
+        }
+        return snapshot;
+    }
+
+    //Lookups queued behind a reload find the cache fresh and do not read the table again
+    private synchronized void reloadIfStale() {
+        if (stale) {
+            reload();
+        }
+    }
+
+    //Cached instances are shared between threads: never hand out an entity managed by a caller's context
+    private static Tenant copyOf(Tenant tenant) {
+        Tenant copy = new Tenant();
+        copy.setId(tenant.getId());
+        copy.setName(tenant.getName());
+        copy.setSecret(tenant.getSecret());
+        copy.setRedirectUri(tenant.getRedirectUri());
+        copy.setAllowedRoles(tenant.getAllowedRoles());
+        copy.setRequiredScopes(tenant.getRequiredScopes());
+        copy.setSupportedGrantTypes(tenant.getSupportedGrantTypes());
+        return copy;
+    }
+}
@@ -0,0 +1,21 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import xyz.kaaniche.phoenix.iam.entities.Tenant;
+
+public class TenantCacheInvalidator {
+    @Inject
+    private Event<TenantChanged> tenantChanged;
+
+    //Callbacks run at flush: the cache is only invalidated by the AFTER_SUCCESS observer, once the write is visible
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onTenantChanged(Tenant tenant) {
+        tenantChanged.fire(new TenantChanged(tenant.getId()));
+    }
+}
@@ -0,0 +1,7 @@
+package xyz.kaaniche.phoenix.iam.controllers;
+
+/**
+ * Fired by {@link TenantCacheInvalidator} when a tenant is written; observed once the transaction commits.
+ */
+public record TenantChanged(Short tenantId) {
+}
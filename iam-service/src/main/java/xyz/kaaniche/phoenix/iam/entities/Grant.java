@@ -2,11 +2,14 @@ package xyz.kaaniche.phoenix.iam.entities;
 
 import jakarta.persistence.*;
 import xyz.kaaniche.phoenix.core.entities.CompoundPKEntity;
+import xyz.kaaniche.phoenix.iam.controllers.GrantCacheInvalidator;
 
 import java.time.LocalDateTime;
 
 @Entity
+@Cacheable
 @Table(name = "issued_grants")
+@EntityListeners(GrantCacheInvalidator.class)
 public class Grant extends CompoundPKEntity<GrantPK> {
     @MapsId("tenantId")
     @ManyToOne
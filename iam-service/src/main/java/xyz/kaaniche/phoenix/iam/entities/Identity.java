@@ -2,6 +2,7 @@ package xyz.kaaniche.phoenix.iam.entities;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.NamedQuery;
 import jakarta.persistence.Table;
 import xyz.kaaniche.phoenix.core.entities.SimplePKEntity;
 
@@ -9,7 +10,12 @@ import java.security.Principal;
 
 @Entity
 @Table(name = "identities")
+@NamedQuery(name = Identity.FIND_CREDENTIALS_BY_USERNAME,
+        query = "select new xyz.kaaniche.phoenix.iam.entities.IdentityCredentials(i.id, i.password, i.roles)"
+                + " from Identity i where i.username = :username")
 public class Identity extends SimplePKEntity<Long> implements Principal {
+    public static final String FIND_CREDENTIALS_BY_USERNAME = "Identity.findCredentialsByUsername";
+
     @Column(length = 191, unique = true, nullable = false)
     private String username;
     @Column(nullable = false)
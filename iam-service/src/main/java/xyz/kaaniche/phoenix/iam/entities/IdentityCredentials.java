@@ -0,0 +1,7 @@
+package xyz.kaaniche.phoenix.iam.entities;
+
+/**
+ * Read-only projection of the identity columns needed to authenticate and issue a code.
+ */
+public record IdentityCredentials(Long id, String password, Long roles) {
+}
@@ -1,12 +1,17 @@
 package xyz.kaaniche.phoenix.iam.entities;
 
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.Table;
 import xyz.kaaniche.phoenix.core.entities.SimplePKEntity;
+import xyz.kaaniche.phoenix.iam.controllers.TenantCacheInvalidator;
 
 @Entity
+@Cacheable
 @Table(name = "tenants")
+@EntityListeners(TenantCacheInvalidator.class)
 public class Tenant extends SimplePKEntity<Short> {
     @Column(name = "tenant_id",nullable = false,unique = true,length = 191)
     private String name;
@@ -0,0 +1,84 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import de.mkammerer.argon2.Argon2;
+import de.mkammerer.argon2.Argon2Factory;
+import de.mkammerer.argon2.Argon2Helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Command line tool proposing Argon2id cost parameters for the hardware it runs on.
+ * <p>
+ * Usage: {@code java -cp iam-service.jar:argon2-jvm.jar:jna.jar xyz.kaaniche.phoenix.iam.security.Argon2Calibration
+ * <targetMillis> [memoryKiB] [threads] [saltLength] [hashLength]}
+ * <p>
+ * Omitted arguments default to the {@code argon2.*} values of the microprofile-config.properties on the classpath.
+ * <p>
+ * The printed properties are meant for microprofile-config.properties. Hashes created with
+ * the previous values are upgraded transparently on the next successful login.
+ */
+public final class Argon2Calibration {
+    private static final int SAMPLES = 5;
+    private static final String CONFIG = "/META-INF/microprofile-config.properties";
+
+    private Argon2Calibration() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: Argon2Calibration <targetMillis> [memoryKiB] [threads] [saltLength] [hashLength]");
+            System.exit(1);
+        }
+        Properties config = loadConfig();
+        long targetMillis = Long.parseLong(args[0]);
+        int memory = argument(args, 1, config, "argon2.memory");
+        int threads = argument(args, 2, config, "argon2.threads");
+        int saltLength = argument(args, 3, config, "argon2.saltLength");
+        int hashLength = argument(args, 4, config, "argon2.hashLength");
+
+        Argon2 argon2 = Argon2Factory.create(Argon2Factory.Argon2Types.ARGON2id, saltLength, hashLength);
+        int iterations = Argon2Helper.findIterations(argon2, targetMillis, memory, threads);
+        double millis = measure(argon2, iterations, memory, threads);
+        int cores = Runtime.getRuntime().availableProcessors();
+        int concurrency = Math.max(1, cores / threads);
+
+        System.out.printf("# Measured %.1f ms per hash over %d samples on %d cores%n", millis, SAMPLES, cores);
+        System.out.printf("# Expected throughput: %.1f verifications/s with %d concurrent hashes%n",
+                concurrency * 1000.0 / millis, concurrency);
+        System.out.println("argon2.saltLength=" + saltLength);
+        System.out.println("argon2.hashLength=" + hashLength);
+        System.out.println("argon2.iterations=" + iterations);
+        System.out.println("argon2.memory=" + memory);
+        System.out.println("argon2.threads=" + threads);
+    }
+
+    private static Properties loadConfig() throws IOException {
+        Properties config = new Properties();
+        try (InputStream in = Argon2Calibration.class.getResourceAsStream(CONFIG)) {
+            if (in != null) {
+                config.load(in);
+            }
+        }
+        return config;
+    }
+
+    private static int argument(String[] args, int index, Properties config, String key) {
+        String value = args.length > index ? args[index] : config.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("No " + key + " argument, and none in " + CONFIG);
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    private static double measure(Argon2 argon2, int iterations, int memory, int threads) {
+        char[] password = "calibration-password".toCharArray();
+        argon2.hash(iterations, memory, threads, password);
+        long start = System.nanoTime();
+        for (int i = 0; i < SAMPLES; ++i) {
+            argon2.hash(iterations, memory, threads, password);
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / SAMPLES;
+    }
+}
@@ -0,0 +1,36 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
+
+/**
+ * Owns the lifecycle of the bounded executor behind {@link Argon2Utility}: its threads come from the
+ * container's managed thread factory, and it is shut down on undeploy so that no hashing thread keeps the
+ * application's class loader alive. Starting it also computes the dummy hash verified for unknown usernames,
+ * so that a failure there fails the deployment instead of the first login.
+ */
+@Startup
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class Argon2Executor {
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    @PostConstruct
+    public void start() {
+        Argon2Utility.start(threadFactory);
+    }
+
+    @PreDestroy
+    public void stop() {
+        Argon2Utility.stop();
+    }
+}
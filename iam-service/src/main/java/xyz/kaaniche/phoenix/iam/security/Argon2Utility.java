@@ -3,8 +3,23 @@ package xyz.kaaniche.phoenix.iam.security;
 import de.mkammerer.argon2.Argon2;
 import de.mkammerer.argon2.Argon2Factory;
 import jakarta.security.enterprise.identitystore.PasswordHash;
+import jakarta.ws.rs.ServiceUnavailableException;
 import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.ConfigProvider;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.lang.management.ManagementFactory;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 public class Argon2Utility implements PasswordHash {
     private static final Config config = ConfigProvider.getConfig();
@@ -15,20 +30,154 @@ public class Argon2Utility implements PasswordHash {
     private static final int iterations = config.getValue("argon2.iterations",Integer.class);
     private static final int memory = config.getValue("argon2.memory",Integer.class);
     private static final int threads = config.getValue("argon2.threads",Integer.class);
+    private static final String encodedPrefix = "$argon2id$v=19$m="+memory+",t="+iterations+",p="+threads+"$";
+    private static final long retryAfter = config.getValue("argon2.executor.retry.after",Long.class);
+    //Verified in place of a missing identity's hash, so an unknown username costs as much as a wrong password.
+    //Computed by start() rather than the class initializer, whose failure would leave the class unusable
+    private static volatile String dummyHash;
+
+    //Each hash allocates argon2.memory KiB off-heap: bound concurrency by both cores and memory
+    private static final int concurrencyLimit = computeConcurrencyLimit(
+            config.getValue("argon2.executor.memory.ratio",Double.class));
+    private static final int queueSize = config.getValue("argon2.executor.queue.size",Integer.class);
+    //Owned by Argon2Executor: created when the application starts and shut down when it stops
+    private static volatile ThreadPoolExecutor executor;
+    private static final LongAdder hashNanos = new LongAdder();
+    private static final LongAdder hashCount = new LongAdder();
+    private static final LongAdder rejections = new LongAdder();
+
+    /**
+     * Computes the dummy hash, then creates the hashing executor on container-managed threads
+     */
+    static synchronized void start(ThreadFactory threadFactory){
+        if(dummyHash == null){
+            dummyHash = argon2.hash(iterations,memory,threads,UUID.randomUUID().toString().toCharArray());
+        }
+        if(executor == null){
+            executor = new ThreadPoolExecutor(concurrencyLimit,concurrencyLimit,0L,TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize),threadFactory,new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    /**
+     * Stops accepting hashes; queued and running ones complete
+     */
+    static synchronized void stop(){
+        if(executor != null){
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
     public static String hash(char[] clientHash){
-        try{
-            return argon2.hash(iterations,memory,threads,clientHash);
-        }finally {
+        return await(submit(()->argon2.hash(iterations,memory,threads,clientHash),clientHash));
+    }
+
+    public static boolean check(String serverHash,char[] clientHash){
+        return await(checkAsync(serverHash,clientHash));
+    }
+
+    /**
+     * Verifies on the hashing executor without blocking the caller.
+     * Admission is decided synchronously: a saturated executor throws 503 right away.
+     */
+    public static CompletableFuture<Boolean> checkAsync(String serverHash,char[] clientHash){
+        return submit(()->verify(serverHash,clientHash),clientHash);
+    }
+
+    /**
+     * @return a hash of a random password computed with the configured cost parameters. Verifying against it
+     * when an identity is not found keeps the response time from revealing which usernames exist.
+     */
+    public static String dummyHash(){
+        String current = dummyHash;
+        if(current == null){
+            throw new IllegalStateException("The hashing executor is not running");
+        }
+        return current;
+    }
+
+    /**
+     * Tells whether a stored hash was produced with other cost parameters than the configured
+     * ones, or by the legacy bcrypt scheme, and should be replaced after the next successful login.
+     */
+    public static boolean needsRehash(String serverHash){
+        if(!serverHash.startsWith(encodedPrefix)){
+            return true;
+        }
+        String[] saltAndHash = serverHash.substring(encodedPrefix.length()).split("\\$");
+        try {
+            return saltAndHash.length != 2
+                    || Base64.getDecoder().decode(saltAndHash[0]).length != saltLength
+                    || Base64.getDecoder().decode(saltAndHash[1]).length != hashLength;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static boolean verify(String serverHash,char[] clientHash){
+        if(serverHash.startsWith("$2")){
+            return BCrypt.checkpw(new String(clientHash),serverHash);
+        }
+        return argon2.verify(serverHash,clientHash);
+    }
+
+    public static HashingStatistics statistics(){
+        long count = hashCount.sum();
+        ThreadPoolExecutor current = executor;
+        return new HashingStatistics(concurrencyLimit,current == null ? 0 : current.getActiveCount(),
+                current == null ? 0 : current.getQueue().size(),
+                count,rejections.sum(),count == 0L ? 0.0 : hashNanos.sum()/1_000_000.0/count);
+    }
+
+    /**
+     * Schedules an Argon2 computation on the bounded hashing executor.
+     * Fails fast with 503 and a Retry-After hint when the wait queue is full.
+     */
+    private static <T> CompletableFuture<T> submit(Supplier<T> computation,char[] clientHash){
+        ThreadPoolExecutor current = executor;
+        if(current == null){
+            argon2.wipeArray(clientHash);
+            throw new IllegalStateException("The hashing executor is not running");
+        }
+        try {
+            return CompletableFuture.supplyAsync(()->{
+                long start = System.nanoTime();
+                try {
+                    return computation.get();
+                } finally {
+                    hashNanos.add(System.nanoTime()-start);
+                    hashCount.increment();
+                    argon2.wipeArray(clientHash);
+                }
+            },current);
+        } catch (RejectedExecutionException e) {
             argon2.wipeArray(clientHash);
+            rejections.increment();
+            throw new ServiceUnavailableException(retryAfter);
         }
     }
 
-    public static boolean check(String serverHash,char[] clientHash){
-       try {
-           return argon2.verify(serverHash,clientHash);
-       }finally {
-           argon2.wipeArray(clientHash);
-       }
+    private static <T> T await(CompletableFuture<T> future){
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static int computeConcurrencyLimit(double memoryRatio){
+        int byCores = Math.max(1,Runtime.getRuntime().availableProcessors()/threads);
+        long physicalMemory = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getTotalMemorySize();
+        long byMemory = Math.max(1L,(long) (physicalMemory*memoryRatio)/(memory*1024L));
+        return (int) Math.min(byCores,byMemory);
     }
 
     @Override
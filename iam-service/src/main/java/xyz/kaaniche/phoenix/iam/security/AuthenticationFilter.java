@@ -1,25 +1,23 @@
 package xyz.kaaniche.phoenix.iam.security;
 
-import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
 import jakarta.annotation.Priority;
+import jakarta.ejb.EJB;
 import jakarta.ejb.EJBException;
+import jakarta.inject.Inject;
 import jakarta.security.enterprise.CallerPrincipal;
 import jakarta.ws.rs.Priorities;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.container.ContainerRequestFilter;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
-import jakarta.ws.rs.core.SecurityContext;
 import jakarta.ws.rs.ext.Provider;
 import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.ConfigProvider;
+import xyz.kaaniche.phoenix.iam.controllers.RoleSet;
 
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
-import java.security.Principal;
 import java.text.ParseException;
-import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
 @Secured
@@ -27,10 +25,17 @@ import java.util.Optional;
 @Priority(Priorities.AUTHENTICATION)
 public class AuthenticationFilter implements ContainerRequestFilter {
     private static final Config config = ConfigProvider.getConfig();
-    private static final String REALM = config.getValue("mp.jwt.realm",String.class);
+    private static final String REALM = config.getValue("jwt.realm",String.class);
 
     private static final String CLAIM_ROLES = config.getValue("jwt.claim.roles",String.class);
     private static final String AUTHENTICATION_SCHEME = "Bearer";
+    private static final String WWW_AUTHENTICATE = AUTHENTICATION_SCHEME + " realm=\"" + REALM + "\"";
+
+    @EJB
+    private JwtManager jwtManager;
+
+    @Inject
+    private CallerRoles callerRoles;
 
     @Override
     public void filter(ContainerRequestContext requestContext) {
@@ -49,41 +54,22 @@ public class AuthenticationFilter implements ContainerRequestFilter {
                 .substring(AUTHENTICATION_SCHEME.length()).trim();
 
         try {
-            // Validate the token
-            InitialContext context = new InitialContext();
-            JwtManager manager = (JwtManager) context.lookup("java:module/JwtManager");//the last value in the jndi name must match the name of the EJB class managing your JWT
-            Optional<JWT> jwt = manager.validateJWT(token);
-            if(jwt.isPresent()){
-                JWTClaimsSet claims = jwt.get().getJWTClaimsSet();
-                final String[] roles = claims.getStringArrayClaim(CLAIM_ROLES);
-                final Principal userPrincipal = new CallerPrincipal(claims.getSubject());
-                final boolean isSecure = requestContext.getSecurityContext().isSecure();
-
-                IdentityUtility.iAm(claims.getSubject());
-
-                requestContext.setSecurityContext(new SecurityContext() {
-                    @Override
-                    public Principal getUserPrincipal() {
-                        return userPrincipal;
-                    }
-
-                    @Override
-                    public boolean isUserInRole(String role) {
-                        return Arrays.asList(roles).contains(role);
-                    }
+            // Validate the token: only access tokens authenticate, refresh tokens are for the token endpoint
+            Optional<JWTClaimsSet> jwt = jwtManager.validateJWT(token, JwtManager.ACCESS_TOKEN);
+            if (jwt.isEmpty()) {
+                abortWithUnauthorized(requestContext);
+                return;
+            }
+            JWTClaimsSet claims = jwt.get();
+            List<String> roleIds = claims.getStringListClaim(CLAIM_ROLES);
+            RoleSet roles = RoleSet.ofIds(roleIds == null ? List.of() : roleIds);
 
-                    @Override
-                    public boolean isSecure() {
-                        return isSecure;
-                    }
+            callerRoles.set(roles);
 
-                    @Override
-                    public String getAuthenticationScheme() {
-                        return AUTHENTICATION_SCHEME;
-                    }
-                });
-            }
-        } catch (EJBException | ParseException | NamingException e) {
+            requestContext.setSecurityContext(new TokenSecurityContext(
+                    new CallerPrincipal(claims.getSubject()), roles,
+                    requestContext.getSecurityContext().isSecure(), AUTHENTICATION_SCHEME));
+        } catch (EJBException | ParseException e) {
             abortWithUnauthorized(requestContext);
         }
     }
@@ -92,8 +78,10 @@ public class AuthenticationFilter implements ContainerRequestFilter {
         // Check if the Authorization header is valid
         // It must not be null and must be prefixed with "Bearer" plus a whitespace
         // The authentication scheme comparison must be case-insensitive
-        return authorizationHeader != null && authorizationHeader.toLowerCase()
-                .startsWith(AUTHENTICATION_SCHEME.toLowerCase() + " ");
+        return authorizationHeader != null
+                && authorizationHeader.length() > AUTHENTICATION_SCHEME.length()
+                && authorizationHeader.regionMatches(true, 0, AUTHENTICATION_SCHEME, 0, AUTHENTICATION_SCHEME.length())
+                && authorizationHeader.charAt(AUTHENTICATION_SCHEME.length()) == ' ';
     }
 
     private void abortWithUnauthorized(ContainerRequestContext requestContext) {
@@ -101,8 +89,7 @@ public class AuthenticationFilter implements ContainerRequestFilter {
         // The WWW-Authenticate header is sent along with the response
         requestContext.abortWith(
                 Response.status(Response.Status.UNAUTHORIZED)
-                        .header(HttpHeaders.WWW_AUTHENTICATE,
-                                AUTHENTICATION_SCHEME + " realm=\"" + REALM + "\"")
+                        .header(HttpHeaders.WWW_AUTHENTICATE, WWW_AUTHENTICATE)
                         .build());
     }
 }
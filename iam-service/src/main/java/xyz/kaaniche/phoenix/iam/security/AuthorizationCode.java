@@ -1,119 +1,146 @@
 package xyz.kaaniche.phoenix.iam.security;
 
-import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
-import java.nio.ByteBuffer;
+import org.eclipse.microprofile.config.ConfigProvider;
 import java.security.SecureRandom;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
 import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.UUID;
 
 public record AuthorizationCode(String tenantName, String identityUsername,
                                 String approvedScopes, Long expirationDate,
-                                String redirectUri){
-    private static final SecretKey key;
+                                String redirectUri, Long roles){
+    private static final CodeKeyRing keyRing = new CodeKeyRing(ConfigProvider.getConfig());
 
     private static final String codePrefix = "urn:phoenix:code:";
 
-    static {
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
         try {
-            key = KeyGenerator.getInstance("CHACHA20").generateKey();
+            return MessageDigest.getInstance("SHA-256");
         } catch (GeneralSecurityException e) {
-            throw new RuntimeException(e);
+            throw new IllegalStateException(e);
         }
-    }
+    });
 
     public String getCode(String codeChallenge) throws Exception {
+        CodeKeyRing.VersionedKey key = keyRing.current();
         String code = UUID.randomUUID().toString();
         String payload = Base64.getEncoder().withoutPadding().encodeToString((tenantName+":"+identityUsername
-                +":"+approvedScopes+":"+expirationDate+":"+redirectUri).getBytes(StandardCharsets.UTF_8));
-        String associatedData =  codePrefix+code;
-        code = codePrefix+code+":"+payload;
-        return code+":"+Base64.getEncoder().withoutPadding().encodeToString(ChaCha20Poly1305.encrypt(codeChallenge.getBytes(),key));
+                +":"+approvedScopes+":"+expirationDate+":"+roles+":"+redirectUri).getBytes(StandardCharsets.UTF_8));
+        //The key version leads so that any node holding that version can redeem the code
+        code = codePrefix+key.version()+":"+code+":"+payload;
+        //The payload is bound as associated data: it travels in clear and must not be altered
+        return code+":"+Base64.getEncoder().withoutPadding().encodeToString(ChaCha20Poly1305.encrypt(codeChallenge.getBytes(),
+                code.getBytes(StandardCharsets.UTF_8),key.key()));
+    }
+
+    /**
+     * @return the unique id minted into a code, only meaningful once the code has been decoded
+     */
+    public static String idOf(String authorizationCode) {
+        int start = authorizationCode.indexOf(':', codePrefix.length()) + 1;
+        return authorizationCode.substring(start, authorizationCode.indexOf(':', start));
     }
 
     public static AuthorizationCode decode(String authorizationCode,String codeVerifier) throws Exception {
         int pos = authorizationCode.lastIndexOf(':');
+        int versionEnd = authorizationCode.indexOf(':', codePrefix.length());
+        if (!authorizationCode.startsWith(codePrefix) || versionEnd < 0 || versionEnd == pos) {
+            throw new InvalidKeyException("Malformed code");
+        }
         String code = authorizationCode.substring(0,pos);
         String cipherCodeChallenge = authorizationCode.substring(pos+1);
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        digest.update(codeVerifier.getBytes(StandardCharsets.UTF_8));
-        String expected = Base64.getEncoder().withoutPadding().encodeToString(digest.digest());
-        if(!expected.equals(new String(ChaCha20Poly1305.decrypt(Base64.getDecoder().decode(cipherCodeChallenge),key),StandardCharsets.UTF_8).replace('_','/').replace('-','+'))){
-            System.out.println(expected+" ?= "+ new String(ChaCha20Poly1305.decrypt(Base64.getDecoder().decode(cipherCodeChallenge),key),StandardCharsets.UTF_8));
+        SecretKey key = keyRing.get(authorizationCode.substring(codePrefix.length(), versionEnd));
+        if (key == null) {
+            throw new InvalidKeyException("Unknown code key version");
+        }
+        byte[] expected = Base64.getEncoder().withoutPadding()
+                .encode(sha256.get().digest(codeVerifier.getBytes(StandardCharsets.UTF_8)));
+        byte[] codeChallenge = ChaCha20Poly1305.decrypt(Base64.getDecoder().decode(cipherCodeChallenge),
+                code.getBytes(StandardCharsets.UTF_8),key);
+        //Challenges may be sent base64url encoded: normalize to the base64 alphabet of the expected value
+        for (int i = 0; i < codeChallenge.length; i++) {
+            if (codeChallenge[i] == '_') {
+                codeChallenge[i] = '/';
+            } else if (codeChallenge[i] == '-') {
+                codeChallenge[i] = '+';
+            }
+        }
+        if(!MessageDigest.isEqual(expected,codeChallenge)){
             return null;
         }
         code = code.substring(codePrefix.length());
         pos = code.lastIndexOf(':');
         code = new String(Base64.getDecoder().decode(code.substring(pos+1)),StandardCharsets.UTF_8);
-        String[] attributes = code.split(":");
+        //The redirect URI comes last and may itself contain ':'
+        String[] attributes = code.split(":",6);
         return new AuthorizationCode(attributes[0],attributes[1],attributes[2],
-                Long.parseLong(attributes[3]),attributes[4]+":"+attributes[5]);
+                Long.parseLong(attributes[3]),attributes[5],Long.parseLong(attributes[4]));
     }
+    /**
+     * ChaCha20-Poly1305 with one cipher instance per thread, re-initialized for every operation,
+     * and nonces drawn from a single shared DRBG.
+     */
     private static class ChaCha20Poly1305 {
 
         private static final String ENCRYPT_ALGO = "ChaCha20-Poly1305";
         private static final int NONCE_LEN = 12; // 96 bits, 12 bytes
 
-        // if no nonce, generate a random 12 bytes nonce
-        public static byte[] encrypt(byte[] pText, SecretKey key) throws Exception {
-            return encrypt(pText, key, getNonce());
+        private static final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+            try {
+                return Cipher.getInstance(ENCRYPT_ALGO);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        private static final SecureRandom random;
+
+        static {
+            try {
+                random = SecureRandom.getInstance("DRBG");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
         }
 
-        public static byte[] encrypt(byte[] pText, SecretKey key, byte[] nonce) throws Exception {
-
-            Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
-
-            // IV, initialization value with nonce
-            IvParameterSpec iv = new IvParameterSpec(nonce);
-
-            cipher.init(Cipher.ENCRYPT_MODE, key, iv);
-
-            byte[] encryptedText = cipher.doFinal(pText);
-
-            // append nonce to the encrypted text
-            byte[] output = ByteBuffer.allocate(encryptedText.length + NONCE_LEN)
-                    .put(encryptedText)
-                    .put(nonce)
-                    .array();
-
-            return output;
+        // if no nonce, generate a random 12 bytes nonce
+        public static byte[] encrypt(byte[] pText, byte[] aad, SecretKey key) throws Exception {
+            return encrypt(pText, aad, key, getNonce());
         }
 
-        public static byte[] decrypt(byte[] cText, SecretKey key) throws Exception {
-
-            ByteBuffer bb = ByteBuffer.wrap(cText);
-
-            // split cText to get the appended nonce
-            byte[] encryptedText = new byte[cText.length - NONCE_LEN];
-            byte[] nonce = new byte[NONCE_LEN];
-            bb.get(encryptedText);
-            bb.get(nonce);
+        public static byte[] encrypt(byte[] pText, byte[] aad, SecretKey key, byte[] nonce) throws Exception {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(nonce));
+            cipher.updateAAD(aad);
 
-            Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
-
-            IvParameterSpec iv = new IvParameterSpec(nonce);
-
-            cipher.init(Cipher.DECRYPT_MODE, key, iv);
-
-            // decrypted text
-            byte[] output = cipher.doFinal(encryptedText);
-
-            return output;
+            // the nonce is appended to the encrypted text
+            byte[] output = new byte[cipher.getOutputSize(pText.length) + NONCE_LEN];
+            int length = cipher.doFinal(pText, 0, pText.length, output, 0);
+            System.arraycopy(nonce, 0, output, length, NONCE_LEN);
+            return length + NONCE_LEN == output.length ? output : Arrays.copyOf(output, length + NONCE_LEN);
+        }
 
+        public static byte[] decrypt(byte[] cText, byte[] aad, SecretKey key) throws Exception {
+            int length = cText.length - NONCE_LEN;
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(cText, length, NONCE_LEN));
+            cipher.updateAAD(aad);
+            return cipher.doFinal(cText, 0, length);
         }
 
         // 96-bit nonce (12 bytes)
         private static byte[] getNonce() {
-            byte[] newNonce = new byte[12];
-            new SecureRandom().nextBytes(newNonce);
+            byte[] newNonce = new byte[NONCE_LEN];
+            random.nextBytes(newNonce);
             return newNonce;
         }
 
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import jakarta.annotation.security.DenyAll;
+import jakarta.annotation.security.PermitAll;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.DynamicFeature;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.FeatureContext;
+import jakarta.ws.rs.ext.Provider;
+
+import java.lang.reflect.Method;
+
+/**
+ * Resolves the security annotations of every resource method at deployment and binds the
+ * matching {@link AuthorizationFilter}. Methods without an effective rule get no filter.
+ */
+@Provider
+public class AuthorizationFeature implements DynamicFeature {
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        Method method = resourceInfo.getResourceMethod();
+        Class<?> resourceClass = resourceInfo.getResourceClass();
+
+        // @DenyAll on the method takes precedence over @RolesAllowed and @PermitAll
+        if (method.isAnnotationPresent(DenyAll.class)) {
+            context.register(AuthorizationFilter.denyAll(), Priorities.AUTHORIZATION);
+            return;
+        }
+
+        // @RolesAllowed on the method takes precedence over @PermitAll
+        RolesAllowed rolesAllowed = method.getAnnotation(RolesAllowed.class);
+        if (rolesAllowed != null) {
+            context.register(AuthorizationFilter.rolesAllowed(rolesAllowed.value()), Priorities.AUTHORIZATION);
+            return;
+        }
+
+        // @PermitAll on the method takes precedence over @RolesAllowed on the class
+        if (method.isAnnotationPresent(PermitAll.class)) {
+            return;
+        }
+
+        // @RolesAllowed on the class takes precedence over @DenyAll on the class
+        rolesAllowed = resourceClass.getAnnotation(RolesAllowed.class);
+        if (rolesAllowed != null) {
+            context.register(AuthorizationFilter.rolesAllowed(rolesAllowed.value()), Priorities.AUTHORIZATION);
+            return;
+        }
+
+        if (resourceClass.isAnnotationPresent(DenyAll.class)) {
+            context.register(AuthorizationFilter.denyAll(), Priorities.AUTHORIZATION);
+        }
+
+        // Authorization is not required for non-annotated methods
+    }
+}
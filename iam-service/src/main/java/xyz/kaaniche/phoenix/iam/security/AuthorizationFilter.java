@@ -1,91 +1,81 @@
 package xyz.kaaniche.phoenix.iam.security;
 
-import jakarta.annotation.Priority;
-import jakarta.annotation.security.DenyAll;
-import jakarta.annotation.security.PermitAll;
-import jakarta.annotation.security.RolesAllowed;
-import jakarta.ws.rs.Priorities;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.container.ContainerRequestFilter;
-import jakarta.ws.rs.container.ResourceInfo;
-import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.Response;
-import jakarta.ws.rs.ext.Provider;
+import jakarta.ws.rs.core.SecurityContext;
+import xyz.kaaniche.phoenix.iam.controllers.Role;
+import xyz.kaaniche.phoenix.iam.controllers.RoleSet;
+
+/**
+ * Authorization rule of a single resource method, resolved once by {@link AuthorizationFeature}.
+ * <p>
+ * The allowed roles are held as a bitmask of the configured roles plus two flags for {@link Role#GUEST} and
+ * {@link Role#ROOT}, whose values are not single bits. An empty set of allowed roles denies every request.
+ */
+final class AuthorizationFilter implements ContainerRequestFilter {
+    private static final AuthorizationFilter DENY_ALL = new AuthorizationFilter(new String[0]);
+
+    private final String[] rolesAllowed;
+    private final long mask;
+    private final boolean guest;
+    private final boolean root;
+
+    private AuthorizationFilter(String[] rolesAllowed) {
+        long mask = 0L;
+        boolean guest = false;
+        boolean root = false;
+        for (String roleId : rolesAllowed) {
+            Role role = Role.byId(roleId);
+            if (role == Role.GUEST) {
+                guest = true;
+            } else if (role == Role.ROOT) {
+                root = true;
+            } else if (role != null) {
+                mask |= role.getValue();
+            }
+        }
+        this.rolesAllowed = rolesAllowed.clone();
+        this.mask = mask;
+        this.guest = guest;
+        this.root = root;
+    }
 
-import java.lang.reflect.Method;
+    static AuthorizationFilter denyAll() {
+        return DENY_ALL;
+    }
 
-@Provider
-@Priority(Priorities.AUTHORIZATION)
-public class AuthorizationFilter implements ContainerRequestFilter {
-    @Context
-    private ResourceInfo resourceInfo;
+    static AuthorizationFilter rolesAllowed(String[] rolesAllowed) {
+        return rolesAllowed.length == 0 ? DENY_ALL : new AuthorizationFilter(rolesAllowed);
+    }
 
     @Override
     public void filter(ContainerRequestContext requestContext) {
-        Method method = resourceInfo.getResourceMethod();
-
-        // @DenyAll on the method takes precedence over @RolesAllowed and @PermitAll
-        if (method.isAnnotationPresent(DenyAll.class)) {
+        SecurityContext securityContext = requestContext.getSecurityContext();
+        if (rolesAllowed.length == 0 || securityContext.getUserPrincipal() == null) {
             refuseRequest();
         }
-
-        // @RolesAllowed on the method takes precedence over @PermitAll
-        RolesAllowed rolesAllowed = method.getAnnotation(RolesAllowed.class);
-        if (rolesAllowed != null) {
-            performAuthorization(rolesAllowed.value(), requestContext);
-            return;
-        }
-
-        // @PermitAll on the method takes precedence over @RolesAllowed on the class
-        if (method.isAnnotationPresent(PermitAll.class)) {
-            // Do nothing
-            return;
-        }
-
-        // @PermitAll must not be attached to classes
-
-        // @RolesAllowed on the class takes precedence over @PermitAll on the class
-        rolesAllowed =
-                resourceInfo.getResourceClass().getAnnotation(RolesAllowed.class);
-        if (rolesAllowed != null) {
-            performAuthorization(rolesAllowed.value(), requestContext);
+        if (securityContext instanceof TokenSecurityContext tokenSecurityContext) {
+            if (!permits(tokenSecurityContext.getRoles())) {
+                refuseRequest();
+            }
             return;
         }
-
-        // @DenyAll on the class
-        if (resourceInfo.getResourceClass().isAnnotationPresent(DenyAll.class)) {
-            refuseRequest();
-        }
-
-        // Authorization is not required for non-annotated methods
-    }
-
-    /**
-     * Perform authorization based on roles.
-     *
-     * @param rolesAllowed the allowed roles
-     * @param requestContext the request context
-     */
-    private void performAuthorization(String[] rolesAllowed,
-                                      ContainerRequestContext requestContext) {
-
-        if (rolesAllowed.length > 0 && !isAuthenticated(requestContext)) {
-            refuseRequest();
-        }
-
-        for (final String role : rolesAllowed) {
-            if (requestContext.getSecurityContext().isUserInRole(role)) {
+        // Security contexts from other mechanisms only answer by role name
+        for (String role : rolesAllowed) {
+            if (securityContext.isUserInRole(role)) {
                 return;
             }
         }
-
         refuseRequest();
     }
 
-    private boolean isAuthenticated(final ContainerRequestContext requestContext) {
-        // Return true if the user is authenticated or false otherwise
-        return requestContext.getSecurityContext().getUserPrincipal() != null;
+    private boolean permits(RoleSet roles) {
+        long bits = roles.bits();
+        return (bits & mask) != 0L
+                || (guest && bits == Role.GUEST.getValue())
+                || (root && bits == Role.ROOT.getValue());
     }
 
     private void refuseRequest() {
@@ -0,0 +1,8 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+public record CacheStatistics(long hits, long misses, int size) {
+    public double hitRatio() {
+        long total = hits + misses;
+        return total == 0L ? 0.0 : (double) hits / total;
+    }
+}
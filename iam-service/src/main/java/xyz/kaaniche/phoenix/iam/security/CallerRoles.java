@@ -0,0 +1,27 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import jakarta.enterprise.context.RequestScoped;
+import xyz.kaaniche.phoenix.iam.controllers.RoleSet;
+
+import java.util.Optional;
+
+/**
+ * Roles of the caller authenticated by {@link AuthenticationFilter}, held by the request context rather than
+ * by the worker thread: a later request served on the same pooled thread starts empty, and code running
+ * outside a request fails with {@code ContextNotActiveException} instead of seeing somebody else's roles.
+ */
+@RequestScoped
+public class CallerRoles {
+    private RoleSet roles;
+
+    void set(RoleSet roles) {
+        this.roles = roles;
+    }
+
+    /**
+     * @return the roles of the authenticated caller, empty if the request was not authenticated
+     */
+    public Optional<RoleSet> get() {
+        return Optional.ofNullable(roles);
+    }
+}
@@ -0,0 +1,156 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import org.eclipse.microprofile.config.Config;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Versioned ChaCha20 keys of the authorization codes, shareable by every node of a cluster.
+ * <p>
+ * Keys are read from {@code code.keys.file}, a properties file mapping versions to base64 keys with a
+ * {@code current} entry, or else from {@code code.keys} ({@code version:base64,...}) and {@code code.keys.current}.
+ * Codes are minted with the current key and tagged with its version; every listed version still decrypts.
+ * To rotate: add the new key on every node, make it current, and drop the old one after a code lifetime.
+ * The file is re-read when it changes, checked at most every {@code code.keys.refresh.interval} seconds.
+ * <p>
+ * Without any key configured a random key is generated, which only suits a single node.
+ */
+final class CodeKeyRing {
+    record VersionedKey(String version, SecretKey key) {
+    }
+
+    private record Snapshot(VersionedKey current, Map<String, SecretKey> keys, long lastModified) {
+    }
+
+    private static final String ALGORITHM = "ChaCha20";
+    private static final int KEY_LENGTH = 32;
+
+    private final Path file;
+    private final long refreshInterval;
+    private volatile Snapshot snapshot;
+    private volatile long nextCheck;
+
+    CodeKeyRing(Config config) {
+        this.file = config.getOptionalValue("code.keys.file", String.class).map(Path::of).orElse(null);
+        this.refreshInterval = config.getValue("code.keys.refresh.interval", Long.class) * 1000L;
+        if (file != null) {
+            snapshot = readFile();
+        } else {
+            Optional<List<String>> keys = config.getOptionalValues("code.keys", String.class);
+            snapshot = keys.isPresent()
+                    ? fromConfig(keys.get(), config.getOptionalValue("code.keys.current", String.class).orElse(null))
+                    : generated();
+        }
+        nextCheck = System.currentTimeMillis() + refreshInterval;
+    }
+
+    VersionedKey current() {
+        return snapshot().current();
+    }
+
+    /**
+     * @return the key of a version, or null if the version is unknown
+     */
+    SecretKey get(String version) {
+        return snapshot().keys().get(version);
+    }
+
+    private Snapshot snapshot() {
+        if (file != null && System.currentTimeMillis() >= nextCheck) {
+            refresh();
+        }
+        return snapshot;
+    }
+
+    private synchronized void refresh() {
+        long now = System.currentTimeMillis();
+        if (now < nextCheck) {
+            return;
+        }
+        nextCheck = now + refreshInterval;
+        try {
+            if (Files.getLastModifiedTime(file).toMillis() != snapshot.lastModified()) {
+                snapshot = readFile();
+            }
+        } catch (IOException | RuntimeException e) {
+            //Keep serving the last good key set while the file is being replaced
+        }
+    }
+
+    private Snapshot readFile() {
+        try {
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            }
+            Map<String, SecretKey> keys = new HashMap<>();
+            for (String version : properties.stringPropertyNames()) {
+                if (!version.equals("current")) {
+                    keys.put(checkVersion(version), decodeKey(properties.getProperty(version)));
+                }
+            }
+            return snapshot(keys, properties.getProperty("current"), lastModified);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Snapshot fromConfig(List<String> entries, String current) {
+        Map<String, SecretKey> keys = new HashMap<>();
+        for (String entry : entries) {
+            int colon = entry.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Illegal config value for code.keys, expected version:base64");
+            }
+            keys.put(checkVersion(entry.substring(0, colon).trim()), decodeKey(entry.substring(colon + 1).trim()));
+        }
+        return snapshot(keys, current, 0L);
+    }
+
+    private static Snapshot generated() {
+        try {
+            SecretKey key = KeyGenerator.getInstance(ALGORITHM).generateKey();
+            return new Snapshot(new VersionedKey("0", key), Map.of("0", key), 0L);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Snapshot snapshot(Map<String, SecretKey> keys, String current, long lastModified) {
+        if (current == null || !keys.containsKey(current)) {
+            throw new IllegalArgumentException("The current code key version " + current + " has no key");
+        }
+        return new Snapshot(new VersionedKey(current, keys.get(current)), Map.copyOf(keys), lastModified);
+    }
+
+    //Versions are embedded in the code between ':' separators
+    private static String checkVersion(String version) {
+        if (!version.matches("[A-Za-z0-9_.-]{1,16}")) {
+            throw new IllegalArgumentException("Illegal code key version: " + version);
+        }
+        return version;
+    }
+
+    private static SecretKey decodeKey(String base64) {
+        byte[] key = Base64.getDecoder().decode(base64.trim());
+        if (key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("Code keys must be " + KEY_LENGTH + " bytes long");
+        }
+        return new SecretKeySpec(key, ALGORITHM);
+    }
+}
@@ -0,0 +1,22 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+/**
+ * Records redeemed authorization codes so that each code is exchanged at most once.
+ */
+public interface ConsumedCodeRegistry {
+    /**
+     * Atomically marks a code as consumed, remembering it until it expires.
+     *
+     * @param codeId    the unique id of the code
+     * @param expiresAt the expiry of the code, in epoch seconds
+     * @return true if the code had not been consumed before
+     */
+    boolean consume(String codeId, long expiresAt);
+
+    /**
+     * Forgets a consumed code whose exchange was refused before any token was issued, so it can be retried.
+     *
+     * @param codeId the unique id of the code
+     */
+    void release(String codeId);
+}
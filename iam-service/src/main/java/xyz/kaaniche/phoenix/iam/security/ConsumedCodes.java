@@ -0,0 +1,79 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.LocalBean;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.Timer;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import redis.clients.jedis.JedisPooled;
+
+import java.net.URI;
+
+/**
+ * The {@link ConsumedCodeRegistry} of this node, selected by {@code code.registry.mode}: {@code local}
+ * for a single node, {@code redis} for a cluster sharing {@code code.registry.redis.uri}.
+ */
+@Startup
+@Singleton
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ConsumedCodes implements ConsumedCodeRegistry {
+    private final Config config = ConfigProvider.getConfig();
+    private final String mode = config.getValue("code.registry.mode", String.class);
+    private final Long tick = config.getValue("code.registry.expiry.tick", Long.class);
+    private final Long codeLifetime = config.getValue("code.lifetime.duration", Long.class);
+
+    @Resource
+    private TimerService timerService;
+
+    private ConsumedCodeRegistry registry;
+    private JedisPooled redis;
+
+    @PostConstruct
+    public void start() {
+        switch (mode) {
+            case "redis" -> {
+                redis = new JedisPooled(URI.create(config.getValue("code.registry.redis.uri", String.class)));
+                registry = new RedisConsumedCodeRegistry(redis);
+            }
+            case "local" -> {
+                registry = new LocalConsumedCodeRegistry(tick, codeLifetime);
+                timerService.createIntervalTimer(tick, tick, new TimerConfig("consumed-code-expiry", false));
+            }
+            default -> throw new IllegalArgumentException("Illegal config value for code.registry.mode: " + mode);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    @Timeout
+    public void onExpiryTimeout(Timer timer) {
+        if (registry instanceof LocalConsumedCodeRegistry local) {
+            local.expire(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public boolean consume(String codeId, long expiresAt) {
+        return registry.consume(codeId, expiresAt);
+    }
+
+    @Override
+    public void release(String codeId) {
+        registry.release(codeId);
+    }
+}
@@ -0,0 +1,5 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+public record HashingStatistics(int concurrencyLimit, int active, int queueDepth,
+                                long completed, long rejected, double averageHashMillis) {
+}
@@ -1,9 +1,7 @@
 package xyz.kaaniche.phoenix.iam.security;
 
-import java.util.Set;
 public class IdentityUtility {
     private static final ThreadLocal<String> username = new ThreadLocal<>();
-    private static final ThreadLocal<Set<String>> roles = new ThreadLocal<>();
 
     private static final ThreadLocal<String> tenant = new ThreadLocal<>();
 
@@ -15,14 +13,6 @@ public class IdentityUtility {
         return username.get();
     }
 
-    public static void setRoles(Set<String> roles){
-        IdentityUtility.roles.set(roles);
-    }
-
-    public static Set<String> getRoles(){
-        return IdentityUtility.roles.get();
-    }
-
     public static void tenantWithName(String tenant){
         IdentityUtility.tenant.set(tenant);
     }
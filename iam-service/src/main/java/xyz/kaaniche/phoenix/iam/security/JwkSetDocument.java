@@ -0,0 +1,13 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import jakarta.ws.rs.core.EntityTag;
+
+/**
+ * Serialized JWK Set of the currently published verification keys.
+ *
+ * @param json     the JSON document, serialized once per key rotation
+ * @param entityTag strong validator derived from the document digest
+ * @param maxAge   seconds a client may cache the document before the next rotation check
+ */
+public record JwkSetDocument(String json, EntityTag entityTag, int maxAge) {
+}
@@ -1,166 +1,358 @@
 package xyz.kaaniche.phoenix.iam.security;
 
 import com.nimbusds.jose.*;
-import com.nimbusds.jose.crypto.Ed25519Signer;
-import com.nimbusds.jose.crypto.Ed25519Verifier;
 import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jose.jwk.KeyUse;
 import com.nimbusds.jose.jwk.OctetKeyPair;
 import com.nimbusds.jose.jwk.gen.OctetKeyPairGenerator;
-import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
-import com.nimbusds.jwt.JWTParser;
 import com.nimbusds.jwt.SignedJWT;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
 import jakarta.ejb.EJBException;
 import jakarta.ejb.LocalBean;
 import jakarta.ejb.Singleton;
 import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.Timer;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.core.EntityTag;
 import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.ConfigProvider;
+import xyz.kaaniche.phoenix.iam.controllers.RoleSet;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Startup
 @Singleton
 @LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class  JwtManager {
+    //Tells access and refresh tokens apart, since both are signed by the same keys for the same audiences
+    public static final String CLAIM_TOKEN_USE = "token_use";
+    public static final String ACCESS_TOKEN = "access";
+    public static final String REFRESH_TOKEN = "refresh";
+
     private final Config config = ConfigProvider.getConfig();
-    private final Map<String,Long> keyPairExpirationTimes = new HashMap<>();
-    private final Set<OctetKeyPair> cachedKeyPairs = new HashSet<>();
+    private final KeyRing keyRing = new KeyRing();
     private final Long keyPairLifetimeDuration = config.getValue("key.pair.lifetime.duration",Long.class);
     private final Short keyPairCacheSize = config.getValue("key.pair.cache.size",Short.class);
+    private final Long keyPairRotationLead = config.getValue("key.pair.rotation.lead.duration",Long.class);
     private final Integer jwtLifetimeDuration = config.getValue("jwt.lifetime.duration",Integer.class);
     private final String issuer = config.getValue("jwt.issuer",String.class);
     private final List<String> audiences = config.getValues("jwt.audiences",String.class);
     private final String claimRoles = config.getValue("jwt.claim.roles",String.class);
     private final OctetKeyPairGenerator keyPairGenerator = new OctetKeyPairGenerator(Curve.Ed25519);
+    private final TokenVerificationCache verificationCache =
+            new TokenVerificationCache(config.getValue("jwt.verification.cache.size",Integer.class));
+    private final Long signingRetryAfter = config.getValue("jwt.signing.executor.retry.after",Long.class);
+    private ThreadPoolExecutor signingExecutor;
+
+    private volatile JwkSetDocument jwkSet;
+
+    @Resource
+    private TimerService timerService;
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
 
     @PostConstruct
     public void start(){
-        while (cachedKeyPairs.size()<keyPairCacheSize){
-            cachedKeyPairs.add(generateKeyPair());
+        //A new key must still be able to sign at the renewal horizon, otherwise rotation never fills the ring
+        if(keyPairRotationLead<0L || keyPairRotationLead>=keyPairLifetimeDuration){
+            throw new IllegalArgumentException("key.pair.rotation.lead.duration ("+keyPairRotationLead
+                    +") must be non-negative and lower than key.pair.lifetime.duration ("+keyPairLifetimeDuration+")");
+        }
+        if(keyPairCacheSize<1){
+            throw new IllegalArgumentException("key.pair.cache.size must be positive: "+keyPairCacheSize);
         }
+        long currentUTCSeconds = Instant.now().getEpochSecond();
+        //Stagger the initial lifetimes so that keys come up for renewal one at a time
+        for(int i=1;i<=keyPairCacheSize;++i){
+            keyRing.add(generateKeyPair(currentUTCSeconds,keyPairLifetimeDuration*i/keyPairCacheSize));
+        }
+        rotate();
+        //Ed25519 signing is CPU bound: one container-managed thread per core, with a bounded wait queue
+        signingExecutor = new ThreadPoolExecutor(
+                Runtime.getRuntime().availableProcessors(),Runtime.getRuntime().availableProcessors(),
+                0L,TimeUnit.MILLISECONDS,new ArrayBlockingQueue<>(config.getValue("jwt.signing.executor.queue.size",Integer.class)),
+                threadFactory,new ThreadPoolExecutor.AbortPolicy());
+        long period = Math.max(1L,keyPairRotationLead/2L)*1000L;
+        timerService.createIntervalTimer(period,period,new TimerConfig("jwt-key-rotation",false));
     }
 
-    public String generateAccessToken(String tenantId, String subject, String approvedScopes, String[] roles){
-        try {
-            OctetKeyPair octetKeyPair = getKeyPair()
-                    .orElseThrow(()->new EJBException("Unable to retrieve a valid Ed25519 KeyPair"));
-            JWSSigner signer = new Ed25519Signer(octetKeyPair);
-            JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.EdDSA)
-                    .keyID(octetKeyPair.getKeyID())
-                    .type(JOSEObjectType.JWT)
-                    .build();
-            Instant now = Instant.now();
-            JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
-                    .issuer(issuer)
-                    .audience(audiences)
-                    .subject(subject)
-                    .claim("upn",subject)
-                    .claim("tenant_id",tenantId)
-                    .claim("scope", approvedScopes)
-                    .claim(claimRoles, roles)
-                    .jwtID(UUID.randomUUID().toString())
-                    .issueTime(Date.from(now))
-                    .notBeforeTime(Date.from(now))
-                    .expirationTime(Date.from(now.plus(jwtLifetimeDuration, ChronoUnit.SECONDS)))
-                    .build();
-            SignedJWT signedJWT = new SignedJWT(header,claimsSet);
-            signedJWT.sign(signer);
-            return signedJWT.serialize();
-        } catch (JOSEException e) {
-            throw new EJBException(e);
-        }
+    @PreDestroy
+    public void stop(){
+        signingExecutor.shutdown();
     }
-    public String generateRefreshToken(String clientId, String subject, String approvedScope) throws Exception {
-        OctetKeyPair octetKeyPair = getKeyPair()
-                .orElseThrow(()->new EJBException("Unable to retrieve a valid Ed25519 KeyPair"));
-        JWSSigner signer = new Ed25519Signer(octetKeyPair);
-        JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.EdDSA)
-                .keyID(octetKeyPair.getKeyID())
-                .type(JOSEObjectType.JWT)
+
+    @Timeout
+    public void onRotationTimeout(Timer timer){
+        rotate();
+    }
+
+    public String generateAccessToken(String tenantId, String subject, String approvedScopes, RoleSet roles){
+        KeyRing.Entry entry = getSigningEntry();
+        Instant now = Instant.now();
+        JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
+                .issuer(issuer)
+                .audience(audiences)
+                .subject(subject)
+                .claim("upn",subject)
+                .claim("tenant_id",tenantId)
+                .claim("scope", approvedScopes)
+                .claim(claimRoles, roles.ids())
+                .claim(CLAIM_TOKEN_USE, ACCESS_TOKEN)
+                .jwtID(UUID.randomUUID().toString())
+                .issueTime(Date.from(now))
+                .notBeforeTime(Date.from(now))
+                .expirationTime(Date.from(now.plus(jwtLifetimeDuration, ChronoUnit.SECONDS)))
                 .build();
+        return sign(entry,claimsSet);
+    }
+
+    public String generateRefreshToken(String clientId, String subject, String approvedScope){
+        KeyRing.Entry entry = getSigningEntry();
         Instant now = Instant.now();
         //6.Build refresh token
         JWTClaimsSet refreshTokenClaims = new JWTClaimsSet.Builder()
+                .issuer(issuer)
+                .audience(audiences)
                 .subject(subject)
                 .claim("tenant_id", clientId)
                 .claim("scope", approvedScope)
+                .claim(CLAIM_TOKEN_USE, REFRESH_TOKEN)
                 //refresh token for 3 hours.
                 .expirationTime(Date.from(now.plus(3, ChronoUnit.HOURS)))
                 .build();
-        SignedJWT signedRefreshToken = new SignedJWT(header,refreshTokenClaims);
-        signedRefreshToken.sign(signer);
-        return signedRefreshToken.serialize();
+        return sign(entry,refreshTokenClaims);
     }
 
-    public Optional<JWT> validateJWT(String token){
+    /**
+     * Signs an access and a refresh token concurrently on the bounded signing executor.
+     * Admission is decided synchronously: a saturated executor throws 503 right away.
+     */
+    public CompletableFuture<TokenPair> generateTokenPair(String tenantId, String subject, String approvedScopes, RoleSet roles){
+        CompletableFuture<String> accessToken;
+        try {
+            accessToken = CompletableFuture.supplyAsync(
+                    ()->generateAccessToken(tenantId,subject,approvedScopes,roles),signingExecutor);
+        } catch (RejectedExecutionException e) {
+            throw new ServiceUnavailableException(signingRetryAfter);
+        }
+        try {
+            CompletableFuture<String> refreshToken = CompletableFuture.supplyAsync(
+                    ()->generateRefreshToken(tenantId,subject,approvedScopes),signingExecutor);
+            return accessToken.thenCombine(refreshToken,TokenPair::new);
+        } catch (RejectedExecutionException e) {
+            //A cancelled task that has not started yet is skipped by the executor instead of signing for nothing
+            accessToken.cancel(false);
+            throw new ServiceUnavailableException(signingRetryAfter);
+        }
+    }
+
+    private static String sign(KeyRing.Entry entry,JWTClaimsSet claimsSet){
+        try {
+            SignedJWT signedJWT = new SignedJWT(entry.header(),claimsSet);
+            signedJWT.sign(entry.signer());
+            return signedJWT.serialize();
+        } catch (JOSEException e) {
+            throw new EJBException(e);
+        }
+    }
+
+    /**
+     * @param tokenUse {@link #ACCESS_TOKEN} or {@link #REFRESH_TOKEN}: a valid token of the other use is rejected
+     */
+    public Optional<JWTClaimsSet> validateJWT(String token,String tokenUse){
+        ByteBuffer cacheKey = verificationCache.keyOf(token);
+        JWTClaimsSet cached = verificationCache.get(cacheKey);
+        if(cached != null){
+            return Optional.of(cached).filter(c -> hasUse(c,tokenUse));
+        }
         try {
             SignedJWT parsed = SignedJWT.parse(token);
-            OctetKeyPair publicKey = cachedKeyPairs.stream()
-                    .filter(kp -> kp.getKeyID().equals(parsed.getHeader().getKeyID()))
-                    .findFirst()
-                    .orElseThrow(()->new EJBException("Unable to retrieve the key pair associated with the kid"))
-                    .toPublicJWK();
-            JWSVerifier verifier = new Ed25519Verifier(publicKey);
-            if(parsed.verify(verifier)){
-                if(parsed.getJWTClaimsSet().getExpirationTime().toInstant().isBefore(Instant.now())){
-                    return Optional.empty();
-                }
-                return Optional.of(JWTParser.parse(token));
+            Optional<JWTClaimsSet> claims = verify(parsed,tokenUse);
+            claims.ifPresent(c -> verificationCache.put(cacheKey,parsed.getHeader().getKeyID(),c));
+            return claims;
+        } catch (ParseException e) {
+            throw new EJBException(e);
+        }
+    }
+
+    /**
+     * Verifies a parsed token against the key ring, bypassing the verification cache
+     */
+    Optional<JWTClaimsSet> verify(SignedJWT parsed,String tokenUse){
+        try {
+            KeyRing.Entry entry = keyRing.get(parsed.getHeader().getKeyID());
+            if(entry == null){
+                throw new EJBException("Unable to retrieve the key pair associated with the kid");
+            }
+            if(!parsed.verify(entry.verifier())){
+                return Optional.empty();
             }
-            return Optional.empty();
+            JWTClaimsSet claims = parsed.getJWTClaimsSet();
+            if(!isCurrentlyValid(claims) || !hasUse(claims,tokenUse)){
+                return Optional.empty();
+            }
+            return Optional.of(claims);
         } catch (ParseException | JOSEException e) {
             throw new EJBException(e);
         }
     }
 
+    private static boolean hasUse(JWTClaimsSet claims,String tokenUse){
+        return tokenUse.equals(claims.getClaim(CLAIM_TOKEN_USE));
+    }
+
+    private boolean isCurrentlyValid(JWTClaimsSet claims){
+        long now = System.currentTimeMillis();
+        Date expirationTime = claims.getExpirationTime();
+        if(expirationTime == null || expirationTime.getTime() < now){
+            return false;
+        }
+        Date notBeforeTime = claims.getNotBeforeTime();
+        if(notBeforeTime != null && notBeforeTime.getTime() > now){
+            return false;
+        }
+        if(!issuer.equals(claims.getIssuer())){
+            return false;
+        }
+        for(String audience : claims.getAudience()){
+            if(audiences.contains(audience)){
+                return true;
+            }
+        }
+        return false;
+    }
+
     public OctetKeyPair getPublicValidationKey(String kid){
-        return cachedKeyPairs.stream()
-                .filter(kp -> kp.getKeyID().equals(kid))
-                .findFirst()
-                .orElseThrow(()->new EJBException("Unable to retrieve the key pair associated with the kid"))
-                .toPublicJWK();
+        KeyRing.Entry entry = keyRing.get(kid);
+        if(entry == null){
+            throw new EJBException("Unable to retrieve the key pair associated with the kid");
+        }
+        return entry.publicKey();
     }
 
-    private OctetKeyPair generateKeyPair(){
+    private KeyRing.Entry generateKeyPair(long currentUTCSeconds,long lifetime){
         //Generate a key pair with Ed25519 curve
         try {
-            Long currentUTCSeconds = LocalDateTime.now(ZoneId.of("UTC")).toEpochSecond(ZoneOffset.UTC);
-            String kid = UUID.randomUUID().toString();
-            keyPairExpirationTimes.put(kid,currentUTCSeconds+keyPairLifetimeDuration);
-            return keyPairGenerator.keyUse(KeyUse.SIGNATURE)
-                    .keyID(kid).generate();
+            OctetKeyPair keyPair = keyPairGenerator.keyUse(KeyUse.SIGNATURE)
+                    .keyID(UUID.randomUUID().toString()).generate();
+            return KeyRing.Entry.of(keyPair,currentUTCSeconds+lifetime);
         } catch (JOSEException e) {
             throw new EJBException(e);
         }
     }
 
-    private boolean hasNotExpired(OctetKeyPair keyPair){
-        long currentUTCSeconds = LocalDateTime.now(ZoneId.of("UTC")).toEpochSecond(ZoneOffset.UTC);
-        return currentUTCSeconds <= keyPairExpirationTimes.get(keyPair.getKeyID());
+    private KeyRing.Entry getSigningEntry(){
+        long currentUTCSeconds = Instant.now().getEpochSecond();
+        KeyRing.Entry current = keyRing.current();
+        if(current == null || !current.canSign(currentUTCSeconds)){
+            //The rotation timer is late: fall back on any pre-generated key, never generate one here
+            current = promoteSigningKey(current,currentUTCSeconds);
+        }
+        if(current == null){
+            throw new EJBException("Unable to retrieve a valid Ed25519 KeyPair");
+        }
+        return current;
     }
 
-    private boolean isPublicKeyExpired(OctetKeyPair keyPair){
-        long currentUTCSeconds = LocalDateTime.now(ZoneId.of("UTC")).toEpochSecond(ZoneOffset.UTC);
-        return currentUTCSeconds > (keyPairExpirationTimes.get(keyPair.getKeyID())+jwtLifetimeDuration);
+    /**
+     * Retires public keys past their grace period, pre-generates replacements for keys
+     * entering the rotation lead window and moves the signing key off a key about to expire.
+     */
+    private synchronized void rotate(){
+        long currentUTCSeconds = Instant.now().getEpochSecond();
+        boolean published = jwkSet == null;
+        for(KeyRing.Entry entry : keyRing.entries()){
+            if(!entry.canVerify(currentUTCSeconds,jwtLifetimeDuration)){
+                keyRing.retire(entry.kid());
+                verificationCache.invalidate(entry.kid());
+                published = true;
+            }
+        }
+        long renewalHorizon = currentUTCSeconds+keyPairRotationLead;
+        while(keyRing.signingKeyCount(renewalHorizon)<keyPairCacheSize){
+            keyRing.add(generateKeyPair(currentUTCSeconds,keyPairLifetimeDuration));
+            published = true;
+        }
+        if(published){
+            jwkSet = publishJwkSet();
+        }
+        KeyRing.Entry current = keyRing.current();
+        if(current == null || !current.canSign(renewalHorizon)){
+            promoteSigningKey(current,renewalHorizon);
+        }
     }
 
-    private Optional<OctetKeyPair> getKeyPair(){
-        cachedKeyPairs.removeIf(this::isPublicKeyExpired);
-        while(cachedKeyPairs.stream().filter(this::hasNotExpired).count()<keyPairCacheSize) {
-            cachedKeyPairs.add(generateKeyPair());
+    private JwkSetDocument publishJwkSet(){
+        List<JWK> keys = new ArrayList<>();
+        for(KeyRing.Entry entry : keyRing.entries()){
+            keys.add(entry.publicKey());
+        }
+        String json = new JWKSet(keys).toString(true);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+            EntityTag entityTag = new EntityTag(Base64.getUrlEncoder().withoutPadding().encodeToString(digest));
+            //Clients must refresh at least once per rotation tick to learn pre-generated keys before they sign
+            int maxAge = (int) Math.max(1L,keyPairRotationLead/2L);
+            return new JwkSetDocument(json,entityTag,maxAge);
+        } catch (NoSuchAlgorithmException e) {
+            throw new EJBException(e);
         }
-        return cachedKeyPairs.stream().filter(this::hasNotExpired).findAny();
+    }
+
+    /**
+     * Swaps in the usable key that expires first, so that the newest keys have been
+     * published for as long as possible before they sign anything.
+     */
+    private KeyRing.Entry promoteSigningKey(KeyRing.Entry current,long notBefore){
+        KeyRing.Entry next = null;
+        for(KeyRing.Entry entry : keyRing.entries()){
+            if(entry.canSign(notBefore) && (next == null || entry.expiresAt() < next.expiresAt())){
+                next = entry;
+            }
+        }
+        if(next == null || keyRing.promote(current,next)){
+            return next;
+        }
+        return keyRing.current();
+    }
+
+    public JwkSetDocument getJwkSet(){
+        return jwkSet;
+    }
+
+    public CacheStatistics getVerificationCacheStatistics(){
+        return verificationCache.statistics();
     }
 
     public String getClaimRoles() {
         return claimRoles;
     }
+
+    public Integer getJwtLifetimeDuration() {
+        return jwtLifetimeDuration;
+    }
 }
@@ -0,0 +1,88 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.Ed25519Signer;
+import com.nimbusds.jose.crypto.Ed25519Verifier;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe set of Ed25519 key pairs indexed by kid, with an atomically swapped signing key.
+ */
+final class KeyRing {
+    /**
+     * A key pair with its public half, verifier, signer and JWS header derived once, since all of them
+     * are immutable and safe to share between request threads.
+     */
+    record Entry(OctetKeyPair keyPair, OctetKeyPair publicKey, JWSVerifier verifier,
+                 JWSSigner signer, JWSHeader header, long expiresAt) {
+        static Entry of(OctetKeyPair keyPair, long expiresAt) throws JOSEException {
+            OctetKeyPair publicKey = keyPair.toPublicJWK();
+            JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.EdDSA)
+                    .keyID(keyPair.getKeyID())
+                    .type(JOSEObjectType.JWT)
+                    .build();
+            return new Entry(keyPair, publicKey, new Ed25519Verifier(publicKey), new Ed25519Signer(keyPair),
+                    header, expiresAt);
+        }
+
+        String kid() {
+            return keyPair.getKeyID();
+        }
+
+        boolean canSign(long epochSecond) {
+            return epochSecond <= expiresAt;
+        }
+
+        boolean canVerify(long epochSecond, long gracePeriod) {
+            return epochSecond <= expiresAt + gracePeriod;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicReference<Entry> current = new AtomicReference<>();
+
+    Entry get(String kid) {
+        return kid == null ? null : entries.get(kid);
+    }
+
+    Entry current() {
+        return current.get();
+    }
+
+    void add(Entry entry) {
+        entries.put(entry.kid(), entry);
+    }
+
+    boolean promote(Entry expected, Entry next) {
+        return current.compareAndSet(expected, next);
+    }
+
+    void retire(String kid) {
+        entries.remove(kid);
+    }
+
+    int signingKeyCount(long epochSecond) {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.canSign(epochSecond)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+}
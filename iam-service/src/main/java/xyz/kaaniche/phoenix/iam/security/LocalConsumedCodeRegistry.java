@@ -0,0 +1,47 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import xyz.kaaniche.phoenix.core.util.HashedTimingWheel;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single-node registry: consumed ids are kept in memory until a hashed timing wheel, advanced with
+ * {@link #expire(long)}, drops them once their code has expired. Memory is bounded by the codes in flight.
+ */
+public final class LocalConsumedCodeRegistry implements ConsumedCodeRegistry {
+    private final Set<String> consumed = ConcurrentHashMap.newKeySet();
+    private final HashedTimingWheel<String> expirations;
+
+    /**
+     * @param tickMillis      the expiry resolution
+     * @param maxLifetimeSecs the longest lifetime of a code, which sizes the wheel to one revolution
+     */
+    public LocalConsumedCodeRegistry(long tickMillis, long maxLifetimeSecs) {
+        this.expirations = new HashedTimingWheel<>(tickMillis,
+                (int) Math.min(1L << 16, maxLifetimeSecs * 1000L / tickMillis + 1L), System.currentTimeMillis());
+    }
+
+    @Override
+    public boolean consume(String codeId, long expiresAt) {
+        if (!consumed.add(codeId)) {
+            return false;
+        }
+        expirations.schedule(codeId, expiresAt * 1000L);
+        return true;
+    }
+
+    @Override
+    public void release(String codeId) {
+        //The pending expiry stays scheduled: removing an absent id, or a re-consumed one at the same deadline, is harmless
+        consumed.remove(codeId);
+    }
+
+    public void expire(long nowMillis) {
+        expirations.advance(nowMillis, consumed::remove);
+    }
+
+    public int size() {
+        return consumed.size();
+    }
+}
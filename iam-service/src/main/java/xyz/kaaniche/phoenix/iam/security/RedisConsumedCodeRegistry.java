@@ -0,0 +1,28 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.params.SetParams;
+
+/**
+ * Cluster-wide registry: a code is consumed by the node that creates its key with SET NX, and Redis
+ * drops the key when the code expires (EXAT).
+ */
+public final class RedisConsumedCodeRegistry implements ConsumedCodeRegistry {
+    private static final String KEY_PREFIX = "phoenix:code:consumed:";
+
+    private final JedisPooled redis;
+
+    public RedisConsumedCodeRegistry(JedisPooled redis) {
+        this.redis = redis;
+    }
+
+    @Override
+    public boolean consume(String codeId, long expiresAt) {
+        return "OK".equals(redis.set(KEY_PREFIX + codeId, "1", SetParams.setParams().nx().exAt(expiresAt)));
+    }
+
+    @Override
+    public void release(String codeId) {
+        redis.del(KEY_PREFIX + codeId);
+    }
+}
@@ -0,0 +1,4 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+public record TokenPair(String accessToken, String refreshToken) {
+}
@@ -0,0 +1,47 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import jakarta.ws.rs.core.SecurityContext;
+import xyz.kaaniche.phoenix.iam.controllers.RoleSet;
+
+import java.security.Principal;
+
+/**
+ * Immutable security context for a request authenticated with a bearer token.
+ */
+public final class TokenSecurityContext implements SecurityContext {
+    private final Principal userPrincipal;
+    private final RoleSet roles;
+    private final boolean secure;
+    private final String authenticationScheme;
+
+    public TokenSecurityContext(Principal userPrincipal, RoleSet roles, boolean secure, String authenticationScheme) {
+        this.userPrincipal = userPrincipal;
+        this.roles = roles;
+        this.secure = secure;
+        this.authenticationScheme = authenticationScheme;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return userPrincipal;
+    }
+
+    public RoleSet getRoles() {
+        return roles;
+    }
+
+    @Override
+    public boolean isUserInRole(String role) {
+        return roles.contains(role);
+    }
+
+    @Override
+    public boolean isSecure() {
+        return secure;
+    }
+
+    @Override
+    public String getAuthenticationScheme() {
+        return authenticationScheme;
+    }
+}
@@ -0,0 +1,99 @@
+package xyz.kaaniche.phoenix.iam.security;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of verified tokens, keyed by the SHA-256 digest of the compact serialization.
+ * Entries live until the token's exp and are dropped as soon as the signing key is retired.
+ */
+final class TokenVerificationCache {
+    private record Entry(JWTClaimsSet claims, String kid, long expiresAt) {
+    }
+
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int maximumSize;
+    private final Map<ByteBuffer, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    TokenVerificationCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    ByteBuffer keyOf(String token) {
+        return ByteBuffer.wrap(sha256.get().digest(token.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    JWTClaimsSet get(ByteBuffer key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.expiresAt() < System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.claims();
+    }
+
+    void put(ByteBuffer key, String kid, JWTClaimsSet claims) {
+        if (maximumSize <= 0 || claims.getExpirationTime() == null) {
+            return;
+        }
+        entries.put(key, new Entry(claims, kid, claims.getExpirationTime().getTime()));
+        if (entries.size() > maximumSize) {
+            evict();
+        }
+    }
+
+    void invalidate(String kid) {
+        entries.values().removeIf(entry -> entry.kid().equals(kid));
+    }
+
+    CacheStatistics statistics() {
+        return new CacheStatistics(hits.sum(), misses.sum(), entries.size());
+    }
+
+    /**
+     * Drops expired entries first, then arbitrary ones, down to 90% of the maximum size
+     * so that a full cache is not swept again on every insertion.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.expiresAt() < now);
+            int target = maximumSize - maximumSize / 10;
+            Iterator<ByteBuffer> keys = entries.keySet().iterator();
+            while (entries.size() > target && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+}